@@ -0,0 +1,70 @@
+package reversi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The fixed positions that benchmarks run on. They are reached by seeded random
+ * play from the initial board, so every run and every commit sees the same
+ * positions.
+ */
+public final class BenchmarkPositions {
+
+	private BenchmarkPositions() {
+	}
+
+	/**
+	 * @return Positions where the current player has a possible move and the
+	 *         given number of squares are empty.
+	 */
+	public static List<Board> withEmpties(int empties, int count) {
+		Random random = new Random(486);
+		List<Board> positions = new ArrayList<>();
+		while (positions.size() < count) {
+			Board board = new Board();
+			while (!board.isComplete() && empties(board) > empties) {
+				board = randomMove(board, random);
+			}
+			if (empties(board) == empties && board.hasCurrentPossibleSquares()) {
+				positions.add(board);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * @return A position where the current player has to pass.
+	 */
+	public static Board passing() {
+		Random random = new Random(486);
+		while (true) {
+			Board board = new Board();
+			while (!board.isComplete()) {
+				if (!board.hasCurrentPossibleSquares()) {
+					return board;
+				}
+				board = randomMove(board, random);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of empty squares on the board.
+	 */
+	public static int empties(Board board) {
+		return board.size() * board.size() - Long.bitCount(board.discs(Player.BLACK) | board.discs(Player.WHITE));
+	}
+
+	/**
+	 * @return The board after a random possible move, or a pass if there is none.
+	 */
+	public static Board randomMove(Board board, Random random) {
+		if (!board.hasCurrentPossibleSquares()) {
+			return board.pass();
+		}
+		List<Square> squares = new ArrayList<>(board.getCurrentPossibleSquares());
+		return board.play(squares.get(random.nextInt(squares.size())));
+	}
+
+}
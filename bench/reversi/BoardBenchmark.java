@@ -0,0 +1,103 @@
+package reversi;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the {@link Board} operations that strategies use the most.
+ * <p>
+ * A board memoizes its possible squares and completion, so the benchmarks of
+ * those play a move first to get a fresh board; subtract the {@link #play()}
+ * score to get the cost of the query alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BoardBenchmark {
+
+	private Board midgame;
+	private Square midgameSquare;
+	private Board passing;
+	private Board beforeEnd;
+	private Square lastSquare;
+	private SplittableRandom random;
+
+	@Setup
+	public void setUp() {
+		this.midgame = BenchmarkPositions.withEmpties(40, 1).get(0);
+		this.midgameSquare = this.midgame.getCurrentPossibleSquares().iterator().next();
+		this.passing = BenchmarkPositions.passing();
+
+		// A board one move before the end of a game
+		Random seeded = new Random(486);
+		Board board = new Board();
+		while (true) {
+			Board next = BenchmarkPositions.randomMove(board, seeded);
+			if (next.isComplete() && board.hasCurrentPossibleSquares()) {
+				this.beforeEnd = board;
+				this.lastSquare = next.getMoves().get(next.getMoves().size() - 1).getSquare();
+				break;
+			}
+			board = next.isComplete() ? new Board() : next;
+		}
+		this.random = new SplittableRandom(486);
+	}
+
+	@Benchmark
+	public Board newBoard() {
+		return new Board();
+	}
+
+	@Benchmark
+	public Board play() {
+		return this.midgame.play(this.midgameSquare);
+	}
+
+	@Benchmark
+	public Board pass() {
+		return this.passing.pass();
+	}
+
+	@Benchmark
+	public Object getCurrentPossibleSquares() {
+		return this.midgame.play(this.midgameSquare).getCurrentPossibleSquares();
+	}
+
+	@Benchmark
+	public boolean isComplete() {
+		return this.midgame.play(this.midgameSquare).isComplete();
+	}
+
+	@Benchmark
+	public Player getWinner() {
+		return this.beforeEnd.play(this.lastSquare).getWinner();
+	}
+
+	/**
+	 * Plays a whole game of random moves, the way a random playout would.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Board randomGame() {
+		Board board = new Board();
+		while (!board.isComplete()) {
+			if (!board.hasCurrentPossibleSquares()) {
+				board = board.pass();
+			} else {
+				Square[] squares = board.getCurrentPossibleSquares().toArray(new Square[0]);
+				board = board.play(squares[this.random.nextInt(squares.length)]);
+			}
+		}
+		return board;
+	}
+
+}
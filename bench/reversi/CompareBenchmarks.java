@@ -0,0 +1,98 @@
+package reversi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written by {@code bench/run.sh}, printing the
+ * change in every score, including the allocation rates of the GC profiler.
+ */
+public class CompareBenchmarks {
+
+	/**
+	 * Arguments: the baseline CSV file and the CSV file to compare with it.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: CompareBenchmarks BASELINE.csv CURRENT.csv");
+			System.exit(2);
+		}
+		Map<String, String[]> baseline = read(args[0]);
+		Map<String, String[]> current = read(args[1]);
+
+		System.out.printf("%14s\t%14s\t%8s\t%-10s\t%s\n", "baseline", "current", "change", "unit", "benchmark");
+		for (Map.Entry<String, String[]> entry : current.entrySet()) {
+			String[] row = entry.getValue();
+			double score = Double.parseDouble(row[0]);
+			String[] before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.printf("%14s\t%14.3f\t%8s\t%-10s\t%s\n", "-", score, "new", row[1], entry.getKey());
+			} else {
+				double old = Double.parseDouble(before[0]);
+				String change = old == 0 ? "-" : String.format("%+.1f%%", (score - old) / old * 100);
+				System.out.printf("%14.3f\t%14.3f\t%8s\t%-10s\t%s\n", old, score, change, row[1], entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Utility method for reading a JMH CSV file into scores and units, keyed by
+	 * benchmark name and parameters. Intended only for internal use.
+	 */
+	private static Map<String, String[]> read(String path) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+		List<String> header = split(lines.get(0));
+		int score = header.indexOf("Score");
+		int unit = header.indexOf("Unit");
+		Map<String, String[]> scores = new LinkedHashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			List<String> fields = split(line);
+			StringBuilder key = new StringBuilder(fields.get(0));
+			for (int i = unit + 1; i < fields.size(); ++i) {
+				if (!fields.get(i).isEmpty()) {
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+				}
+			}
+			scores.put(key.toString(), new String[] { fields.get(score), fields.get(unit) });
+		}
+		return scores;
+	}
+
+	/**
+	 * Utility method for splitting a CSV line with optionally quoted fields.
+	 * Intended only for internal use.
+	 */
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					++i;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+}
@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the project and its JMH benchmarks, then runs them with the GC
+# profiler. Results go to bench/results/<commit>.csv; compare two runs with
+#   java -cp bench/target/classes reversi.CompareBenchmarks OLD.csv NEW.csv
+#
+# CLASSPATH must hold the pcollections and guava jars plus jmh-core,
+# jmh-generator-annprocess, jopt-simple and commons-math3. Any further
+# arguments are passed to JMH, e.g. a benchmark name pattern or "-f 1".
+set -e
+cd "$(dirname "$0")/.."
+: "${CLASSPATH:?set CLASSPATH to the project and JMH jars}"
+
+OUT=bench/target/classes
+rm -rf "$OUT"
+mkdir -p "$OUT" bench/results
+javac -d "$OUT" -cp "$CLASSPATH" $(find src bench -name '*.java')
+
+COMMIT=$(git rev-parse --short HEAD)$(git diff --quiet HEAD -- src || echo -dirty)
+java -cp "$OUT:$CLASSPATH" org.openjdk.jmh.Main -prof gc -rf csv -rff "bench/results/$COMMIT.csv" "$@"
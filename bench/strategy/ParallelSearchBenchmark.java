@@ -0,0 +1,56 @@
+package strategy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import reversi.BenchmarkPositions;
+import reversi.Board;
+
+/**
+ * Benchmarks fixed-depth {@link Reversi} searches of midgame positions with
+ * one and with several threads (Lazy SMP). The speedup is the time with one
+ * thread divided by the time with more.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelSearchBenchmark {
+
+  @Param({ "9" })
+  public int depth;
+
+  @Param({ "1", "2", "4" })
+  public int threads;
+
+  private List<Board> positions;
+  private Reversi strategy;
+
+  @Setup
+  public void setUp() {
+    positions = BenchmarkPositions.withEmpties(40, 8);
+    strategy = new Reversi(1, TimeUnit.SECONDS, threads);
+  }
+
+  @Setup(Level.Invocation)
+  public void clear() {
+    strategy.clear();
+  }
+
+  @Benchmark
+  public void fixedDepthSearch(Blackhole blackhole) {
+    for (Board board : positions) {
+      blackhole.consume(strategy.search(board, depth, Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package strategy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import reversi.BenchmarkPositions;
+import reversi.Board;
+import reversi.Square;
+
+/**
+ * Benchmarks timed {@link Reversi} searches of midgame positions with and
+ * without {@link ProbCut}, one position per operation, each given the same
+ * time. The plies counter of the {@link SearchCounters} is then the depth the
+ * search completes per second of searching, and the difference between the two
+ * runs is the effective depth ProbCut gains per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProbCutBenchmark {
+
+  @Param({ "500" })
+  public long millis;
+
+  @Param({ "off", "on" })
+  public String probCut;
+
+  @Param({ "1.5" })
+  public double threshold;
+
+  private List<Board> positions;
+  private Reversi strategy;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    positions = BenchmarkPositions.withEmpties(36, 16);
+    strategy = new Reversi(millis, TimeUnit.MILLISECONDS);
+    strategy.setProbCut(probCut.equals("on") ? ProbCut.getDefault().withThreshold(threshold) : null);
+  }
+
+  @Setup(Level.Invocation)
+  public void clear() {
+    strategy.clear();
+  }
+
+  @Benchmark
+  public Square timedSearch(SearchCounters counters) {
+    Board board = positions.get(next++ % positions.size());
+    long start = System.nanoTime();
+    long budget = TimeUnit.MILLISECONDS.toNanos(millis);
+    Square square = strategy.search(board, 60, start + budget, start + budget / 2);
+    counters.record(strategy);
+    return square;
+  }
+}
@@ -0,0 +1,74 @@
+package strategy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import reversi.BenchmarkPositions;
+import reversi.Board;
+
+/**
+ * Benchmarks of fixed-depth {@link Reversi} searches and exact
+ * {@link EndgameSolver} solves over fixed sets of positions. The transposition
+ * table is cleared before every invocation, so each one searches from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchBenchmark {
+
+  @Param({ "6" })
+  public int depth;
+
+  @Param({ "14" })
+  public int endgameEmpties;
+
+  private List<Board> midgame;
+  private List<Board> endgame;
+  private Reversi strategy;
+  private EndgameSolver solver;
+
+  @Setup
+  public void setUp() {
+    midgame = BenchmarkPositions.withEmpties(36, 8);
+    endgame = BenchmarkPositions.withEmpties(endgameEmpties, 8);
+    strategy = new Reversi(1, TimeUnit.SECONDS, 1);
+    solver = new EndgameSolver();
+  }
+
+  @Setup(Level.Invocation)
+  public void clear() {
+    strategy.clear();
+  }
+
+  @Benchmark
+  public void midgameSearch(Blackhole blackhole) {
+    for (Board board : midgame) {
+      blackhole.consume(strategy.search(board, depth, Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+  }
+
+  @Benchmark
+  public void endgameSearch(Blackhole blackhole) {
+    for (Board board : endgame) {
+      blackhole.consume(strategy.search(board, depth, Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+  }
+
+  @Benchmark
+  public void endgameSolve(Blackhole blackhole) {
+    for (Board board : endgame) {
+      blackhole.consume(solver.solve(board, Long.MAX_VALUE));
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package strategy;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What the benchmarked searches did, reported by JMH next to the score. In
+ * throughput mode every counter is a rate per second, so dividing one by the
+ * score gives its mean per search.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class SearchCounters {
+
+  /**
+   * The positions visited.
+   */
+  public long nodes;
+
+  /**
+   * The depths completed, summed over the searches: the plies searched per
+   * second.
+   */
+  public long plies;
+
+  /**
+   * The shares of cutoffs made by the first move searched, summed over the
+   * searches.
+   */
+  public double firstMoveCutoffRate;
+
+  /**
+   * Adds the counters of the strategy's most recent search.
+   */
+  void record(Reversi strategy) {
+    nodes += strategy.getNodes();
+    plies += strategy.getCompletedDepth();
+    firstMoveCutoffRate += strategy.getFirstMoveCutoffRate();
+  }
+}
@@ -0,0 +1,29 @@
+package reversi;
+
+/**
+ * Where a {@link DeadlineStrategy} publishes the best square it has found so
+ * far while it is still choosing. Published squares may be read from any
+ * thread.
+ */
+public final class BestMove {
+
+  private volatile Square square;
+
+  /**
+   * Replaces the published square.
+   * 
+   * @param square
+   *          One of the possible squares of the board being chosen on.
+   */
+  public void publish(Square square) {
+    this.square = square;
+  }
+
+  /**
+   * @return The most recently published square, or null if there is none.
+   */
+  public Square get() {
+    return this.square;
+  }
+
+}
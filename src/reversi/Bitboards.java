@@ -0,0 +1,115 @@
+package reversi;
+
+/**
+ * Move generation on 8x8 bitboards. A bitboard is a {@code long} with one bit
+ * per square, where the square at ({@code row}, {@code column}) is bit
+ * {@code row * 8 + column}. A position is described by two bitboards: the
+ * discs of the player to move and the discs of the opponent.
+ */
+public final class Bitboards {
+
+	/**
+	 * The number of squares on a bitboard.
+	 */
+	public static final int SQUARES = 64;
+
+	/**
+	 * All squares except those in column 0.
+	 */
+	private static final long NOT_FIRST_COLUMN = 0xFEFEFEFEFEFEFEFEL;
+
+	/**
+	 * All squares except those in column 7.
+	 */
+	private static final long NOT_LAST_COLUMN = 0x7F7F7F7F7F7F7F7FL;
+
+	/**
+	 * All squares except those in columns 0 and 7.
+	 */
+	private static final long INNER_COLUMNS = 0x7E7E7E7E7E7E7E7EL;
+
+	/**
+	 * The eight directions as bit shifts (positive shifts go left), and the mask
+	 * of squares a disc may land on after one step in each direction.
+	 */
+	private static final int[] SHIFTS = { 1, -1, 8, -8, 9, -9, 7, -7 };
+	private static final long[] STEP_MASKS = { NOT_FIRST_COLUMN, NOT_LAST_COLUMN, -1L, -1L, NOT_FIRST_COLUMN,
+			NOT_LAST_COLUMN, NOT_LAST_COLUMN, NOT_FIRST_COLUMN };
+
+	private Bitboards() {
+	}
+
+	/**
+	 * @return The bitboard index of the square at the given row and column.
+	 */
+	public static int index(int row, int column) {
+		return row * 8 + column;
+	}
+
+	/**
+	 * @return The squares where the player may legally place a disc, i.e. every
+	 *         empty square that brackets at least one line of opponent discs.
+	 */
+	public static long moves(long player, long opponent) {
+		long empty = ~(player | opponent);
+		long horizontal = opponent & INNER_COLUMNS;
+		return movesInDirection(player, horizontal, empty, 1)
+				| movesInDirection(player, opponent, empty, 8)
+				| movesInDirection(player, horizontal, empty, 7)
+				| movesInDirection(player, horizontal, empty, 9);
+	}
+
+	/**
+	 * Utility method for generating moves along one axis in both directions.
+	 * Intended only for internal use.
+	 */
+	private static long movesInDirection(long player, long mask, long empty, int shift) {
+		long left = mask & (player << shift);
+		left |= mask & (left << shift);
+		left |= mask & (left << shift);
+		left |= mask & (left << shift);
+		left |= mask & (left << shift);
+		left |= mask & (left << shift);
+		long right = mask & (player >>> shift);
+		right |= mask & (right >>> shift);
+		right |= mask & (right >>> shift);
+		right |= mask & (right >>> shift);
+		right |= mask & (right >>> shift);
+		right |= mask & (right >>> shift);
+		return empty & ((left << shift) | (right >>> shift));
+	}
+
+	/**
+	 * @param index
+	 *          The bitboard index of an empty square.
+	 * @return The opponent discs that would be captured if the player placed a
+	 *         disc at the given square. Zero if the move is not legal.
+	 */
+	public static long flips(int index, long player, long opponent) {
+		long move = 1L << index;
+		long flips = 0;
+		for (int d = 0; d < SHIFTS.length; ++d) {
+			int shift = SHIFTS[d];
+			long mask = STEP_MASKS[d];
+			long line = 0;
+			long next = step(move, shift) & mask;
+			while ((next & opponent) != 0) {
+				line |= next;
+				next = step(next, shift) & mask;
+			}
+			if ((next & player) != 0) {
+				flips |= line;
+			}
+		}
+		return flips;
+	}
+
+	/**
+	 * Utility method for moving every bit one step in a direction. Intended only
+	 * for internal use.
+	 */
+	private static long step(long bits, int shift) {
+		return shift > 0 ? bits << shift : bits >>> -shift;
+	}
+
+}
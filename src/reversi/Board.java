@@ -1,16 +1,16 @@
 package reversi;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import org.pcollections.HashTreePMap;
-import org.pcollections.HashTreePSet;
-import org.pcollections.PMap;
 import org.pcollections.PSequence;
-import org.pcollections.PSet;
 import org.pcollections.TreePVector;
 
 import com.google.common.base.Function;
@@ -20,108 +20,115 @@ import com.google.common.collect.Ordering;
  * A single state of a Reversi board. It records which pieces have been played
  * so far by which players, which pieces have been captured, and who the next
  * player to play should be.
+ * <p>
+ * Square ownership is stored as two bitboards (see {@link Bitboards}), so
+ * finding the possible squares and playing a piece only needs a handful of
+ * shifts and masks rather than a walk over every square. Derived state such
+ * as the possible squares and their captures is computed on first access and
+ * memoized. Boards are immutable and can be queried from several threads at
+ * once: threads that race to compute the same state compute the same value,
+ * and each value is published safely.
  */
 public class Board {
-	private int size;
-	private Player player;
-	private PMap<Square, Player> owners;
-	private PSequence<Move> moves;
-	private PMap<Square, PSet<Square>> possibleSquares;
-	private PMap<Player, Integer> playerSquareCounts;
+	private static final int SIZE = 8;
+
+	/**
+	 * Marks a lazily computed bitboard that has not been computed yet. No real
+	 * set of possible squares can contain every square.
+	 */
+	private static final long UNKNOWN = -1L;
+
+	private final Player player;
+	private final long black;
+	private final long white;
+	private final long key; // The Zobrist key of the discs, see Zobrist
+	private final PSequence<Move> moves;
+	// Derived state, computed on first access and memoized
+	private volatile long possibleSquares = UNKNOWN;
+	private volatile Set<Square> possibleSquareSet;
+	private volatile AtomicReferenceArray<Set<Square>> capturedSquares;
+	private volatile Map<Square, Player> owners;
+	private volatile Map<Player, Integer> playerSquareCounts;
+	private volatile Boolean complete;
 
 	/**
 	 * Creates an 8x8 Reversi board with the standard initial configuration of
 	 * {@link Player#BLACK} and {@link Player#WHITE} pieces.
 	 */
 	public Board() {
-		this(8, Player.BLACK, TreePVector.<Move> empty(), getInitialOwners(8), getInitialPlayerSquareCounts());
+		this(Player.BLACK, TreePVector.<Move> empty(), getInitialBlack(), getInitialWhite(),
+				Zobrist.discs(getInitialBlack(), getInitialWhite()));
 	}
 
 
 	/**
 	 * Low-level constructor. Intended only for internal use.
 	 */
-	private Board(int size, Player player, PSequence<Move> moves, PMap<Square, Player> owners, PMap<Player, Integer> playerSquareCounts) {
-		this.size = size;
+	private Board(Player player, PSequence<Move> moves, long black, long white, long key) {
 		this.player = player;
 		this.moves = moves;
-		this.owners = owners;
-		this.possibleSquares = HashTreePMap.empty();
-		this.playerSquareCounts = playerSquareCounts;
-		// Determine the possible moves
-		Player opponent = this.player.opponent();
-		int[][] directions =
-				new int[][] { { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 }, { 0, -1 }, { -1, -1 }, { -1, 0 },
-			{ -1, 1 } };
-			for (int row = 0; row < this.size; ++row) {
-				for (int column = 0; column < this.size; ++column) {
-					if (this.owners.get(new Square(row, column)) == null) {
-						PSet<Square> allCaptures = HashTreePSet.empty();
-						for (int[] direction : directions) {
-							int rowStep = direction[0];
-							int columnStep = direction[1];
-							int r = row + rowStep;
-							int c = column + columnStep;
-							PSet<Square> captures = HashTreePSet.empty();
-							if (this.hasOwner(r, c, opponent)) {
-								captures = captures.plus(new Square(r, c));
-								r += rowStep;
-								c += columnStep;
-								while (this.hasOwner(r, c, opponent)) {
-									captures = captures.plus(new Square(r, c));
-									r += rowStep;
-									c += columnStep;
-								}
-								if (this.hasOwner(r, c, this.player)) {
-									allCaptures = allCaptures.plusAll(captures);
-								}
-							}
-						}
-						if (!allCaptures.isEmpty()) {
-							this.possibleSquares = this.possibleSquares.plus(new Square(row, column), allCaptures);
-						}
-					}
-				}
-			}
+		this.black = black;
+		this.white = white;
+		this.key = key;
+	}
+
+	/**
+	 * Utility method for lazily determining the possible moves. Intended only for
+	 * internal use.
+	 */
+	private long possibleSquares() {
+		long possible = this.possibleSquares;
+		if (possible == UNKNOWN) {
+			possible = Bitboards.moves(this.discs(this.player), this.discs(this.player.opponent()));
+			this.possibleSquares = possible;
+		}
+		return possible;
+	}
+
+	/**
+	 * @return The bitboard of squares occupied by the given player. Intended only
+	 *         for use within this package.
+	 */
+	long discs(Player owner) {
+		return owner == Player.BLACK ? this.black : this.white;
 	}
 
 	/**
-	 * Utility method for simultaneously checking bounds and owner. Intended only
+	 * Utility method for converting a bitboard to a set of squares. Intended only
 	 * for internal use.
 	 */
-	private boolean hasOwner(int row, int column, Player owner) {
-		return 0 <= row && row < this.size && 0 <= column && column < this.size
-				&& this.owners.get(new Square(row, column)) == owner;
+	private static Set<Square> toSquares(long bits) {
+		Set<Square> squares = new HashSet<>();
+		for (long rest = bits; rest != 0; rest &= rest - 1) {
+			squares.add(Square.of(Long.numberOfTrailingZeros(rest)));
+		}
+		return Collections.unmodifiableSet(squares);
 	}
 
 	/**
 	 * Utility method for generating the initial board configuration. Intended only
 	 * for internal use.
 	 */
-	private static PMap<Square, Player> getInitialOwners(int size) {
-		PMap<Square, Player> owners = HashTreePMap.empty();
-		int mid = size / 2;
-		owners = owners.plus(new Square(mid - 1, mid - 1), Player.WHITE);
-		owners = owners.plus(new Square(mid - 1, mid), Player.BLACK);
-		owners = owners.plus(new Square(mid, mid - 1), Player.BLACK);
-		owners = owners.plus(new Square(mid, mid), Player.WHITE);
-		return owners;
+	private static long getInitialBlack() {
+		int mid = SIZE / 2;
+		return 1L << Bitboards.index(mid - 1, mid) | 1L << Bitboards.index(mid, mid - 1);
 	}
 
-	private static PMap<Player, Integer> getInitialPlayerSquareCounts() {
-		return HashTreePMap.<Player, Integer> empty().plus(Player.BLACK, 2).plus(Player.WHITE, 2);
+	private static long getInitialWhite() {
+		int mid = SIZE / 2;
+		return 1L << Bitboards.index(mid - 1, mid - 1) | 1L << Bitboards.index(mid, mid);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(this.size, this.owners);
+		return Long.hashCode(this.key);
 	}
 
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof Board) {
 			Board that = (Board) obj;
-			return this.size == that.size && Objects.equals(this.owners, that.owners);
+			return this.black == that.black && this.white == that.white;
 		}
 		return false;
 	}
@@ -130,12 +137,12 @@ public class Board {
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
         builder.append("|======================================================================================================|\n");
-		for (int row = 0; row < this.size; ++row) {
-			for (int col = 0; col < this.size; ++col) {
-				Player owner = this.owners.get(new Square(row, col));
-				if (owner == Player.WHITE) {
+		for (int row = 0; row < SIZE; ++row) {
+			for (int col = 0; col < SIZE; ++col) {
+				long bit = 1L << Bitboards.index(row, col);
+				if ((this.white & bit) != 0) {
 					builder.append("| (" + (row) + ", " + (col) + "): W |");
-				} else if (owner == Player.BLACK) {
+				} else if ((this.black & bit) != 0) {
 					builder.append("| (" + (row) + ", " + (col) + "): B |");
 				} else {
 					builder.append("| (" + (row) + ", " + (col) + "):   |");
@@ -150,7 +157,7 @@ public class Board {
 	 * @return The number of rows (= the number of columns) in this Reversi board.
 	 */
 	public int size() {
-		return this.size;
+		return SIZE;
 	}
 
 	/**
@@ -166,14 +173,32 @@ public class Board {
 	 * @return A mapping from squares to the players currently occupying them.
 	 */
 	public Map<Square, Player> getSquareOwners() {
-		return this.owners;
+		Map<Square, Player> owners = this.owners;
+		if (owners == null) {
+			Map<Square, Player> found = new HashMap<>();
+			for (long rest = this.black | this.white; rest != 0; rest &= rest - 1) {
+				int index = Long.numberOfTrailingZeros(rest);
+				found.put(Square.of(index), (this.black & 1L << index) != 0 ? Player.BLACK : Player.WHITE);
+			}
+			owners = Collections.unmodifiableMap(found);
+			this.owners = owners;
+		}
+		return owners;
 	}
 
 	/**
 	 * @return The count of squares currently occupied by each player.
 	 */
 	public Map<Player, Integer> getPlayerSquareCounts() {
-		return this.playerSquareCounts;
+		Map<Player, Integer> counts = this.playerSquareCounts;
+		if (counts == null) {
+			Map<Player, Integer> found = new EnumMap<>(Player.class);
+			found.put(Player.BLACK, Long.bitCount(this.black));
+			found.put(Player.WHITE, Long.bitCount(this.white));
+			counts = Collections.unmodifiableMap(found);
+			this.playerSquareCounts = counts;
+		}
+		return counts;
 	}
 
 	/**
@@ -181,7 +206,12 @@ public class Board {
 	 *         otherwise.
 	 */
 	public boolean isComplete() {
-		return this.possibleSquares.isEmpty() && this.pass().possibleSquares.isEmpty();
+		Boolean complete = this.complete;
+		if (complete == null) {
+			complete = !this.hasCurrentPossibleSquares() && !this.hasOpponentPossibleSquares();
+			this.complete = complete;
+		}
+		return complete;
 	}
 
 	/**
@@ -199,11 +229,20 @@ public class Board {
 			}
 		});
 		Player winner = bySquares.max(Arrays.asList(Player.values()));
-		return this.playerSquareCounts.get(winner) == this.playerSquareCounts.get(winner.opponent())
+		return Long.bitCount(this.discs(winner)) == Long.bitCount(this.discs(winner.opponent()))
 				? null
 						: winner;
 	}
 
+	/**
+	 * @return The Zobrist key of this board, covering both the square owners and
+	 *         the current player. Unlike {@link #hashCode()}, boards that differ
+	 *         only in the current player have different keys.
+	 */
+	public long getZobristKey() {
+		return this.key ^ Zobrist.toMove(this.player);
+	}
+
 	/**
 	 * @return The player that gets to choose a square next.
 	 */
@@ -215,7 +254,121 @@ public class Board {
 	 * @return The possible valid moves that the current player may choose from.
 	 */
 	public Set<Square> getCurrentPossibleSquares() {
-		return this.possibleSquares.keySet();
+		Set<Square> squares = this.possibleSquareSet;
+		if (squares == null) {
+			squares = toSquares(this.possibleSquares());
+			this.possibleSquareSet = squares;
+		}
+		return squares;
+	}
+
+	/**
+	 * @return The possible moves of the current player as a bitboard, with bit
+	 *         {@code row * 8 + column} set for each possible square. Unlike
+	 *         {@link #getCurrentPossibleSquares()}, allocates nothing.
+	 */
+	public long getPossibleMoves() {
+		return this.possibleSquares();
+	}
+
+	/**
+	 * Lists the possible moves of the current player as bitboard indices, in
+	 * increasing order, without allocating.
+	 * 
+	 * @param indices
+	 *          Filled with the index of each possible square. Room for 32 moves
+	 *          is always enough.
+	 * @return The number of possible moves.
+	 */
+	public int getPossibleMoves(int[] indices) {
+		int count = 0;
+		for (long rest = this.possibleSquares(); rest != 0; rest &= rest - 1) {
+			indices[count++] = Long.numberOfTrailingZeros(rest);
+		}
+		return count;
+	}
+
+	/**
+	 * Like {@link #getPossibleMoves(int[])}, but also finds the opponent pieces
+	 * that each move would capture.
+	 * 
+	 * @param flips
+	 *          Filled with a bitboard of the captured pieces for each move, in
+	 *          the same order as the indices.
+	 */
+	public int getPossibleMoves(int[] indices, long[] flips) {
+		long player = this.discs(this.player);
+		long opponent = this.discs(this.player.opponent());
+		int count = 0;
+		for (long rest = this.possibleSquares(); rest != 0; rest &= rest - 1) {
+			int index = Long.numberOfTrailingZeros(rest);
+			indices[count] = index;
+			flips[count++] = Bitboards.flips(index, player, opponent);
+		}
+		return count;
+	}
+
+	/**
+	 * @param index
+	 *          The bitboard index {@code row * 8 + column} of a square.
+	 * @return The opponent pieces that the current player would capture by
+	 *         placing a piece at the square, as a bitboard. Zero if the square
+	 *         is not a possible move.
+	 */
+	public long getFlips(int index) {
+		if (index < 0 || index >= Bitboards.SQUARES || (this.possibleSquares() & 1L << index) == 0) {
+			return 0;
+		}
+		return Bitboards.flips(index, this.discs(this.player), this.discs(this.player.opponent()));
+	}
+
+	/**
+	 * @return The squares occupied by the given player, as a bitboard.
+	 */
+	public long getDiscs(Player owner) {
+		return this.discs(owner);
+	}
+
+	/**
+	 * @return True if the current player has at least one possible move, false
+	 *         if they must pass. Cheaper than checking
+	 *         {@link #getCurrentPossibleSquares()} for emptiness.
+	 */
+	public boolean hasCurrentPossibleSquares() {
+		return this.possibleSquares() != 0;
+	}
+
+	/**
+	 * @return True if the opponent of the current player would have at least one
+	 *         possible move on this layout. Does not build the passed board.
+	 */
+	public boolean hasOpponentPossibleSquares() {
+		return Bitboards.moves(this.discs(this.player.opponent()), this.discs(this.player)) != 0;
+	}
+
+	/**
+	 * @param square
+	 *          One of the {@link #getCurrentPossibleSquares()}.
+	 * @return The opponent pieces that the current player would capture by placing
+	 *         a piece at the given square. Empty if the square is not a possible
+	 *         move.
+	 */
+	public Set<Square> getCapturedSquares(Square square) {
+		int index = square.getIndex();
+		if (index < 0 || (this.possibleSquares() & 1L << index) == 0) {
+			return Collections.emptySet();
+		}
+		AtomicReferenceArray<Set<Square>> captured = this.capturedSquares;
+		if (captured == null) {
+			captured = new AtomicReferenceArray<>(Bitboards.SQUARES);
+			this.capturedSquares = captured;
+		}
+		Set<Square> captures = captured.get(index);
+		if (captures == null) {
+			captures = toSquares(Bitboards.flips(index, this.discs(this.player), this.discs(this.player.opponent())));
+			captured.set(index, captures);
+		}
+		return captures;
 	}
 
 	/**
@@ -231,28 +384,43 @@ public class Board {
 	 *         current player now set to the opponent.
 	 */
 	public Board play(Square square) {
-		Player existingPlayer = this.owners.get(square);
-		if (existingPlayer != null) {
-			String message = "A %s piece already exists at %s";
-			throw new IllegalArgumentException(String.format(message, existingPlayer, square));
+		int index = square.getIndex();
+		if (index < 0) {
+			String message = "%s is not a square on this board";
+			throw new IllegalArgumentException(String.format(message, square));
 		}
-		PSet<Square> captures = this.possibleSquares.get(square);
-		if (captures == null) {
-			String message = "%s will not capture any pieces if placed at (%d,%d)";
-			throw new IllegalArgumentException(String.format(message, this.player, square));
+		return this.play(index);
+	}
+
+	/**
+	 * Like {@link #play(Square)}, but takes the square's bitboard index, as found
+	 * by {@link #getPossibleMoves(int[])}.
+	 * 
+	 * @param index
+	 *          The index {@code row * 8 + column} of the square.
+	 */
+	public Board play(int index) {
+		if (index < 0 || index >= Bitboards.SQUARES) {
+			String message = "%d is not a square index on this board";
+			throw new IllegalArgumentException(String.format(message, index));
 		}
-		PSequence<Move> newMoves = this.moves.plus(new Move(square, this.player));
-		PMap<Square, Player> newOwners = this.owners.plus(square, this.player);
-		for (Square capture : captures) {
-			newOwners = newOwners.plus(capture, this.player);
+		long bit = 1L << index;
+		if (((this.black | this.white) & bit) != 0) {
+			Player existingPlayer = (this.black & bit) != 0 ? Player.BLACK : Player.WHITE;
+			String message = "A %s piece already exists at %s";
+			throw new IllegalArgumentException(String.format(message, existingPlayer, Square.of(index)));
 		}
-		Player opponent = this.player.opponent();
-		int playerSquareCount = this.playerSquareCounts.get(this.player) + captures.size() + 1;
-		int opponentSquareCount = this.playerSquareCounts.get(opponent) - captures.size();
-		PMap<Player, Integer> newPlayerSquareCounts = this.playerSquareCounts;
-		newPlayerSquareCounts = newPlayerSquareCounts.plus(this.player, playerSquareCount);
-		newPlayerSquareCounts = newPlayerSquareCounts.plus(opponent, opponentSquareCount);
-		return new Board(this.size, opponent, newMoves, newOwners, newPlayerSquareCounts);
+		long captures = Bitboards.flips(index, this.discs(this.player), this.discs(this.player.opponent()));
+		if (captures == 0) {
+			String message = "%s will not capture any pieces if placed at %s";
+			throw new IllegalArgumentException(String.format(message, this.player, Square.of(index)));
+		}
+		PSequence<Move> newMoves = this.moves.plus(Move.of(Square.of(index), this.player));
+		long changed = bit | captures;
+		long newBlack = this.player == Player.BLACK ? this.black | changed : this.black & ~captures;
+		long newWhite = this.player == Player.WHITE ? this.white | changed : this.white & ~captures;
+		long newKey = this.key ^ Zobrist.disc(this.player, index) ^ Zobrist.flips(captures);
+		return new Board(this.player.opponent(), newMoves, newBlack, newWhite, newKey);
 	}
 
 	/**
@@ -263,14 +431,14 @@ public class Board {
 	 *         current player now set to the opponent.
 	 */
 	public Board pass() {
-		Set<Square> validNextMoves = this.getCurrentPossibleSquares();
-		if (!validNextMoves.isEmpty()) {
+		if (this.hasCurrentPossibleSquares()) {
+			Set<Square> validNextMoves = this.getCurrentPossibleSquares();
 			String message = "%s cannot pass since there are valid moves: %s";
 			throw new IllegalArgumentException(String.format(message, this.player, validNextMoves));
 		}
 		Player opponent = this.player.opponent();
-		PSequence<Move> newMoves = this.moves.plus(new Move(Square.PASS, this.player));
-		return new Board(this.size, opponent, newMoves, this.owners, this.playerSquareCounts);
+		PSequence<Move> newMoves = this.moves.plus(Move.of(Square.PASS, this.player));
+		return new Board(opponent, newMoves, this.black, this.white, this.key);
 	}
 
 }
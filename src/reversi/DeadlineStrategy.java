@@ -0,0 +1,28 @@
+package reversi;
+
+/**
+ * A strategy that is told when it must have chosen its square, and publishes
+ * the best square found so far while it chooses. When the deadline passes, the
+ * game plays the published square instead of declaring a forfeit, so the
+ * strategy can use all of its time.
+ */
+public interface DeadlineStrategy extends Strategy {
+  /**
+   * Determines where the current player should play their next piece before
+   * the deadline. Games call this instead of {@link #chooseSquare(Board)}.
+   * <p>
+   * Once the deadline passes, the game interrupts the calling thread and goes
+   * on without waiting for the result, so the strategy should return promptly
+   * at the deadline and must not rely on finishing afterwards.
+   * 
+   * @param board
+   *          The current state of the Reversi board.
+   * @param deadline
+   *          The {@link System#nanoTime()} by which the square is needed.
+   * @param bestMove
+   *          Where to publish the best square found so far, as early and as
+   *          often as it improves.
+   * @return The square where the current player should play their next piece.
+   */
+  public Square chooseSquare(Board board, long deadline, BestMove bestMove);
+}
@@ -0,0 +1,177 @@
+package reversi;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The moves of a single game and its result, stored as one byte per move: the
+ * bitboard index of the square played (see {@link Bitboards}), or
+ * {@link #PASS} for a pass. Boards are only built when the game is replayed.
+ */
+public final class GameRecord {
+
+	/**
+	 * The byte recorded for a pass.
+	 */
+	public static final byte PASS = (byte) 0xFF;
+
+	/**
+	 * The most moves a record can hold, well above the 60 moves that place a disc
+	 * and the passes between them that a game can have.
+	 */
+	public static final int MAX_MOVES = 2 * Bitboards.SQUARES;
+
+	private final byte[] moves;
+	private final int blackDiscs;
+	private final int whiteDiscs;
+
+	/**
+	 * Low-level constructor. Intended only for use within this package.
+	 */
+	GameRecord(byte[] moves, int blackDiscs, int whiteDiscs) {
+		this.moves = moves;
+		this.blackDiscs = blackDiscs;
+		this.whiteDiscs = whiteDiscs;
+	}
+
+	/**
+	 * Records the moves made so far to reach a board, and the discs on it.
+	 *
+	 * @param board
+	 *          A board reached from the initial board, usually a complete one.
+	 */
+	public static GameRecord of(Board board) {
+		List<Move> moves = board.getMoves();
+		if (moves.size() > MAX_MOVES) {
+			throw new IllegalArgumentException("too many moves to record: " + moves.size());
+		}
+		byte[] bytes = new byte[moves.size()];
+		for (int i = 0; i < bytes.length; ++i) {
+			Square square = moves.get(i).getSquare();
+			bytes[i] = square == Square.PASS ? PASS : (byte) square.getIndex();
+		}
+		return new GameRecord(bytes, Long.bitCount(board.discs(Player.BLACK)), Long.bitCount(board.discs(Player.WHITE)));
+	}
+
+	/**
+	 * @return The number of moves in the game, including passes.
+	 */
+	public int getMoveCount() {
+		return this.moves.length;
+	}
+
+	/**
+	 * @return The square played by the given move, or {@link Square#PASS}.
+	 */
+	public Square getSquare(int move) {
+		byte square = this.moves[move];
+		return square == PASS ? Square.PASS : Square.of(square);
+	}
+
+	/**
+	 * @return The number of black discs at the end of the record.
+	 */
+	public int getBlackDiscs() {
+		return this.blackDiscs;
+	}
+
+	/**
+	 * @return The number of white discs at the end of the record.
+	 */
+	public int getWhiteDiscs() {
+		return this.whiteDiscs;
+	}
+
+	/**
+	 * @return The black discs minus the white discs at the end of the record.
+	 */
+	public int getDiscDifference() {
+		return this.blackDiscs - this.whiteDiscs;
+	}
+
+	/**
+	 * Utility method for getting the raw moves. Intended only for use within this
+	 * package.
+	 */
+	byte[] moves() {
+		return this.moves;
+	}
+
+	/**
+	 * Replays the game. Each board is built from the previous one only when the
+	 * iteration reaches it.
+	 *
+	 * @return The initial board followed by the board after each move.
+	 * @throws IllegalArgumentException
+	 *           If iteration reaches a move that is not valid on its board.
+	 */
+	public Iterable<Board> getBoards() {
+		return new Iterable<Board>() {
+			@Override
+			public Iterator<Board> iterator() {
+				return new Iterator<Board>() {
+					private Board board;
+					private int move;
+
+					@Override
+					public boolean hasNext() {
+						return this.board == null || this.move < moves.length;
+					}
+
+					@Override
+					public Board next() {
+						if (!this.hasNext()) {
+							throw new NoSuchElementException();
+						}
+						if (this.board == null) {
+							this.board = new Board();
+						} else {
+							Square square = getSquare(this.move++);
+							this.board = square == Square.PASS ? this.board.pass() : this.board.play(square);
+						}
+						return this.board;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * @return The board at the end of the record.
+	 */
+	public Board toBoard() {
+		Board board = null;
+		for (Board next : this.getBoards()) {
+			board = next;
+		}
+		return board;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(this.moves) + this.blackDiscs - this.whiteDiscs;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof GameRecord) {
+			GameRecord that = (GameRecord) obj;
+			return Arrays.equals(this.moves, that.moves) && this.blackDiscs == that.blackDiscs
+					&& this.whiteDiscs == that.whiteDiscs;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%s(%d-%d:", this.getClass().getSimpleName(), this.blackDiscs, this.whiteDiscs));
+		for (int move = 0; move < this.moves.length; ++move) {
+			builder.append(' ').append(this.getSquare(move));
+		}
+		return builder.append(')').toString();
+	}
+
+}
@@ -0,0 +1,60 @@
+package reversi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the game records written by {@link GameRecordWriter} from a channel,
+ * one at a time. Not thread-safe.
+ */
+public class GameRecordReader extends RecordReader<GameRecord> {
+
+	/**
+	 * Starts reading an archive from a channel by checking the format header.
+	 *
+	 * @throws IOException
+	 *           If the channel does not start with a supported header.
+	 */
+	public GameRecordReader(ReadableByteChannel channel) throws IOException {
+		super(channel, GameRecordWriter.MAGIC, GameRecordWriter.VERSION, "game record", GameRecordWriter.HEADER_BYTES);
+	}
+
+	/**
+	 * Opens the archive at the given path.
+	 */
+	public static GameRecordReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new GameRecordReader(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *           If a move is neither a square nor a pass.
+	 */
+	@Override
+	protected GameRecord decode(ByteBuffer buffer) throws IOException {
+		int count = buffer.get() & 0xFF;
+		int blackDiscs = buffer.get() & 0xFF;
+		int whiteDiscs = buffer.get() & 0xFF;
+		this.require(count);
+		byte[] moves = new byte[count];
+		buffer.get(moves);
+		for (byte move : moves) {
+			if (move != GameRecord.PASS && (move < 0 || move >= Bitboards.SQUARES)) {
+				String message = "bad move byte 0x%02x in game record %d";
+				throw new IOException(String.format(message, move & 0xFF, this.getRecordCount() + 1));
+			}
+		}
+		return new GameRecord(moves, blackDiscs, whiteDiscs);
+	}
+
+}
@@ -0,0 +1,54 @@
+package reversi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Writes game records to a channel in a compact binary format, read back by
+ * {@link GameRecordReader}. After the format header of {@link RecordWriter},
+ * each record is a header of three unsigned bytes, holding the number of moves
+ * and the black and white disc counts, followed by one byte per move as in
+ * {@link GameRecord}. A typical game takes about 63 bytes.
+ */
+public class GameRecordWriter extends RecordWriter<GameRecord> {
+
+	static final int MAGIC = 0x52564752; // "RVGR"
+	static final byte VERSION = 1;
+	static final int HEADER_BYTES = 3;
+
+	/**
+	 * Starts a new archive on a channel by writing the format header.
+	 */
+	public GameRecordWriter(WritableByteChannel channel) {
+		super(channel, MAGIC, VERSION);
+	}
+
+	/**
+	 * Creates or replaces the archive at the given path.
+	 */
+	public static GameRecordWriter open(Path path) throws IOException {
+		return new GameRecordWriter(create(path));
+	}
+
+	/**
+	 * Appends a record of the game that led to the given board.
+	 */
+	public void write(Board board) throws IOException {
+		this.write(GameRecord.of(board));
+	}
+
+	@Override
+	protected int size(GameRecord record) {
+		return HEADER_BYTES + record.moves().length;
+	}
+
+	@Override
+	protected void encode(GameRecord record, ByteBuffer buffer) {
+		byte[] moves = record.moves();
+		buffer.put((byte) moves.length).put((byte) record.getBlackDiscs()).put((byte) record.getWhiteDiscs());
+		buffer.put(moves);
+	}
+
+}
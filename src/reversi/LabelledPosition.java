@@ -0,0 +1,96 @@
+package reversi;
+
+/**
+ * A position sampled from a finished game, labelled with how the game ended.
+ * The position is seen from the side of the player to move: their discs, the
+ * opponent's discs, and the final disc difference in their favour.
+ */
+public final class LabelledPosition {
+
+	private final long playerDiscs;
+	private final long opponentDiscs;
+	private final int label;
+
+	/**
+	 * @param playerDiscs
+	 *          The bitboard of the discs of the player to move.
+	 * @param opponentDiscs
+	 *          The bitboard of the discs of their opponent.
+	 * @param label
+	 *          The player's discs minus the opponent's discs at the end of the
+	 *          game.
+	 */
+	public LabelledPosition(long playerDiscs, long opponentDiscs, int label) {
+		if ((playerDiscs & opponentDiscs) != 0) {
+			throw new IllegalArgumentException("a square cannot be owned by both players");
+		}
+		if (Math.abs(label) > Bitboards.SQUARES) {
+			throw new IllegalArgumentException("not a disc difference: " + label);
+		}
+		this.playerDiscs = playerDiscs;
+		this.opponentDiscs = opponentDiscs;
+		this.label = label;
+	}
+
+	/**
+	 * Labels a board from the side of its current player.
+	 *
+	 * @param difference
+	 *          The black discs minus the white discs at the end of the game.
+	 */
+	public static LabelledPosition of(Board board, int difference) {
+		Player player = board.getCurrentPlayer();
+		return new LabelledPosition(board.discs(player), board.discs(player.opponent()),
+				player == Player.BLACK ? difference : -difference);
+	}
+
+	/**
+	 * @return The bitboard of the discs of the player to move.
+	 */
+	public long getPlayerDiscs() {
+		return this.playerDiscs;
+	}
+
+	/**
+	 * @return The bitboard of the discs of their opponent.
+	 */
+	public long getOpponentDiscs() {
+		return this.opponentDiscs;
+	}
+
+	/**
+	 * @return The final disc difference in favour of the player to move.
+	 */
+	public int getLabel() {
+		return this.label;
+	}
+
+	/**
+	 * @return The number of empty squares.
+	 */
+	public int getEmptyCount() {
+		return Bitboards.SQUARES - Long.bitCount(this.playerDiscs | this.opponentDiscs);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * Long.hashCode(this.playerDiscs) + Long.hashCode(this.opponentDiscs)) + this.label;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof LabelledPosition) {
+			LabelledPosition that = (LabelledPosition) obj;
+			return this.playerDiscs == that.playerDiscs && this.opponentDiscs == that.opponentDiscs
+					&& this.label == that.label;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%016x, %016x, %+d)", this.getClass().getSimpleName(), this.playerDiscs,
+				this.opponentDiscs, this.label);
+	}
+
+}
@@ -0,0 +1,121 @@
+package reversi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram of durations with logarithmic buckets, so percentiles from
+ * microseconds to minutes are accurate to within about 6% in constant space.
+ * Not thread-safe; {@link MoveMetrics} synchronizes access.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Enough buckets for durations of up to 2^42 microseconds, about 50 days.
+	 */
+	private static final int BUCKETS = (42 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	/**
+	 * Records a duration.
+	 */
+	public void record(long duration, TimeUnit unit) {
+		long micros = Math.max(0, unit.toMicros(duration));
+		++this.counts[Math.min(bucket(micros), BUCKETS - 1)];
+		++this.count;
+		this.total += micros;
+		this.max = Math.max(this.max, micros);
+	}
+
+	/**
+	 * Adds every duration recorded by another histogram to this one.
+	 */
+	public void add(LatencyHistogram that) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			this.counts[i] += that.counts[i];
+		}
+		this.count += that.count;
+		this.total += that.total;
+		this.max = Math.max(this.max, that.max);
+	}
+
+	/**
+	 * @return The number of durations recorded.
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return The longest duration recorded, in microseconds.
+	 */
+	public long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return The mean duration, in microseconds.
+	 */
+	public double getMean() {
+		return this.count == 0 ? 0 : (double) this.total / this.count;
+	}
+
+	/**
+	 * @param percentile
+	 *          Between 0 and 100.
+	 * @return The duration in microseconds that the given percentage of recorded
+	 *         durations do not exceed, rounded up to its bucket.
+	 */
+	public long getPercentile(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += this.counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * Utility method for finding the bucket of a duration. Durations below
+	 * {@link #SUB_BUCKETS} get a bucket each; above that, each power of two is
+	 * split into {@link #SUB_BUCKETS} buckets. Intended only for internal use.
+	 */
+	private static int bucket(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Utility method for finding the largest duration in a bucket. Intended only
+	 * for internal use.
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+
+}
@@ -4,23 +4,53 @@ import java.util.Objects;
 
 /**
  * Represents the placement of a piece by a player at a square.
+ * <p>
+ * Moves are obtained from {@link #of(Square, Player)}, which returns the same
+ * instance every time for the squares of an 8x8 board and for
+ * {@link Square#PASS}.
  */
-public class Move {
+public final class Move {
 
-  private Square square;
-  private Player player;
+  /**
+   * The moves of each player indexed by bitboard index plus one, with the pass
+   * first.
+   */
+  private static final Move[][] MOVES = new Move[Player.values().length][Bitboards.SQUARES + 1];
+  static {
+    for (Player player : Player.values()) {
+      MOVES[player.ordinal()][0] = new Move(Square.PASS, player);
+      for (int index = 0; index < Bitboards.SQUARES; ++index) {
+        MOVES[player.ordinal()][index + 1] = new Move(Square.of(index), player);
+      }
+    }
+  }
+
+  private final Square square;
+  private final Player player;
 
   /**
-   * Creates a new Move.
+   * Low-level constructor. Intended only for internal use.
+   */
+  private Move(Square square, Player player) {
+    this.square = square;
+    this.player = player;
+  }
+
+  /**
+   * Finds the move of a player at a square.
    * 
    * @param square
    *          The square where a piece was placed.
    * @param player
    *          The player placing the piece.
+   * @return The shared instance for a square of an 8x8 board or a pass,
+   *         otherwise a new move.
    */
-  public Move(Square square, Player player) {
-    this.square = square;
-    this.player = player;
+  public static Move of(Square square, Player player) {
+    if (square == Square.PASS || square.getIndex() >= 0) {
+      return MOVES[player.ordinal()][square.getIndex() + 1];
+    }
+    return new Move(square, player);
   }
 
   /**
@@ -49,6 +79,9 @@ public class Move {
 
   @Override
   public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
     if (obj instanceof Move) {
       Move that = (Move) obj;
       return Objects.equals(this.square, that.square) && Objects.equals(this.player, that.player);
@@ -0,0 +1,85 @@
+package reversi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running {@link Strategy#chooseSquare(Board)} calls, meant to be
+ * shared by many games through
+ * {@link Reversi#Reversi(Strategy, Strategy, long, java.util.concurrent.TimeUnit, ExecutorService)}.
+ * The caller owns the executor and shuts it down when all games are done.
+ */
+public final class MoveExecutors {
+
+	private MoveExecutors() {
+	}
+
+	/**
+	 * @return An executor that reuses idle daemon threads and starts new ones only
+	 *         when every thread is busy, so the number of threads follows the
+	 *         number of moves being chosen at once. Moves never wait in a queue,
+	 *         which would count against their timeout.
+	 */
+	public static ExecutorService shared() {
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "reversi-move-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return True if this JDK supports virtual threads (Java 21 or later).
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 * @return An executor that chooses each move on its own virtual thread. Only
+	 *         available on Java 21 or later.
+	 * @throws UnsupportedOperationException
+	 *           If this JDK does not support virtual threads.
+	 */
+	public static ExecutorService virtualThreadPerMove() {
+		Method method = virtualThreadFactoryMethod();
+		if (method == null) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+		}
+		try {
+			return (ExecutorService) method.invoke(null);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("could not create a virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * @return A {@link #virtualThreadPerMove()} executor if this JDK supports it,
+	 *         otherwise a {@link #shared()} one. Not for games that charge CPU
+	 *         time, since the CPU time of virtual threads cannot be measured.
+	 */
+	public static ExecutorService preferred() {
+		return isVirtualThreadSupported() ? virtualThreadPerMove() : shared();
+	}
+
+	/**
+	 * Utility method for finding the Java 21 virtual thread executor factory
+	 * without requiring Java 21 to compile. Intended only for internal use.
+	 */
+	private static Method virtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,291 @@
+package reversi;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-move measurements collected by {@link Reversi} games: how long each
+ * strategy took to choose its squares, split by game phase, how often it timed
+ * out or fell back on a published square, and any counters it published as a
+ * {@link ReportingStrategy}. One instance may be shared by many concurrent
+ * games.
+ */
+public class MoveMetrics {
+
+	/**
+	 * The stage of the game a move was chosen in, by number of empty squares.
+	 */
+	public enum Phase {
+		/**
+		 * More than 40 empty squares.
+		 */
+		OPENING,
+		/**
+		 * From 21 to 40 empty squares.
+		 */
+		MIDGAME,
+		/**
+		 * 20 empty squares or fewer.
+		 */
+		ENDGAME;
+
+		/**
+		 * @return The phase of the given board.
+		 */
+		public static Phase of(Board board) {
+			int empties = board.size() * board.size() - Long.bitCount(board.discs(Player.BLACK) | board.discs(Player.WHITE));
+			return empties > 40 ? OPENING : empties > 20 ? MIDGAME : ENDGAME;
+		}
+	}
+
+	/**
+	 * The measurements of a single strategy.
+	 */
+	private static class StrategyMetrics {
+		final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+		final Map<String, CounterMetrics> counters = new TreeMap<>();
+		long timeouts;
+		long fallbacks;
+
+		StrategyMetrics() {
+			for (Phase phase : Phase.values()) {
+				this.latencies.put(phase, new LatencyHistogram());
+			}
+		}
+
+		LatencyHistogram total() {
+			LatencyHistogram total = new LatencyHistogram();
+			for (LatencyHistogram latency : this.latencies.values()) {
+				total.add(latency);
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * The values of one counter published by a strategy.
+	 */
+	private static class CounterMetrics {
+		long count;
+		double sum;
+		double max = Double.NEGATIVE_INFINITY;
+
+		double mean() {
+			return this.count == 0 ? 0 : this.sum / this.count;
+		}
+	}
+
+	private final Map<String, StrategyMetrics> strategies = new TreeMap<>();
+
+	/**
+	 * Records a square chosen in time.
+	 *
+	 * @param strategy
+	 *          The name of the strategy that chose the square.
+	 * @param board
+	 *          The board the square was chosen on.
+	 * @param nanos
+	 *          The time taken to choose the square, in nanoseconds.
+	 * @param counters
+	 *          The counters published by the strategy for this move, or null.
+	 */
+	public synchronized void recordMove(String strategy, Board board, long nanos, Map<String, Number> counters) {
+		StrategyMetrics metrics = this.metrics(strategy);
+		metrics.latencies.get(Phase.of(board)).record(nanos, TimeUnit.NANOSECONDS);
+		if (counters != null) {
+			for (Map.Entry<String, Number> entry : counters.entrySet()) {
+				CounterMetrics counter = metrics.counters.get(entry.getKey());
+				if (counter == null) {
+					counter = new CounterMetrics();
+					metrics.counters.put(entry.getKey(), counter);
+				}
+				double value = entry.getValue().doubleValue();
+				++counter.count;
+				counter.sum += value;
+				counter.max = Math.max(counter.max, value);
+			}
+		}
+	}
+
+	/**
+	 * Records a strategy that failed to choose a square in time.
+	 *
+	 * @param strategy
+	 *          The name of the strategy.
+	 * @param board
+	 *          The board the square was to be chosen on.
+	 * @param nanos
+	 *          The time waited before giving up, in nanoseconds.
+	 */
+	public synchronized void recordTimeout(String strategy, Board board, long nanos) {
+		StrategyMetrics metrics = this.metrics(strategy);
+		metrics.latencies.get(Phase.of(board)).record(nanos, TimeUnit.NANOSECONDS);
+		++metrics.timeouts;
+	}
+
+	/**
+	 * Records a square that a {@link DeadlineStrategy} published but did not
+	 * return in time, and that was played instead.
+	 *
+	 * @param strategy
+	 *          The name of the strategy.
+	 * @param board
+	 *          The board the square was chosen on.
+	 * @param nanos
+	 *          The time waited before playing the published square, in
+	 *          nanoseconds.
+	 */
+	public synchronized void recordFallback(String strategy, Board board, long nanos) {
+		StrategyMetrics metrics = this.metrics(strategy);
+		metrics.latencies.get(Phase.of(board)).record(nanos, TimeUnit.NANOSECONDS);
+		++metrics.fallbacks;
+	}
+
+	/**
+	 * Utility method for finding or creating the measurements of a strategy.
+	 * Intended only for internal use.
+	 */
+	private StrategyMetrics metrics(String strategy) {
+		StrategyMetrics metrics = this.strategies.get(strategy);
+		if (metrics == null) {
+			metrics = new StrategyMetrics();
+			this.strategies.put(strategy, metrics);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Prints the latency percentiles and counters of every strategy, overall and
+	 * per phase, in milliseconds.
+	 */
+	public synchronized void report(PrintStream out) {
+		out.printf("%-10s\t%6s\t%9s\t%9s\t%9s\t%9s\t%s\n", "phase", "moves", "mean ms", "p50 ms", "p99 ms", "max ms",
+				"strategy");
+		for (Map.Entry<String, StrategyMetrics> entry : this.strategies.entrySet()) {
+			StrategyMetrics metrics = entry.getValue();
+			this.reportLatency(out, "ALL", metrics.total(), entry.getKey());
+			for (Phase phase : Phase.values()) {
+				this.reportLatency(out, phase.name(), metrics.latencies.get(phase), entry.getKey());
+			}
+		}
+		for (Map.Entry<String, StrategyMetrics> entry : this.strategies.entrySet()) {
+			StrategyMetrics metrics = entry.getValue();
+			out.printf("%s: %d timeouts, %d fallbacks\n", entry.getKey(), metrics.timeouts, metrics.fallbacks);
+			for (Map.Entry<String, CounterMetrics> counter : metrics.counters.entrySet()) {
+				out.printf("  %-16s mean %.3f\tmax %.3f\n", counter.getKey(), counter.getValue().mean(),
+						counter.getValue().max);
+			}
+		}
+	}
+
+	/**
+	 * Utility method for printing one line of latencies. Intended only for
+	 * internal use.
+	 */
+	private void reportLatency(PrintStream out, String phase, LatencyHistogram latency, String strategy) {
+		if (latency.getCount() > 0) {
+			out.printf("%-10s\t%6d\t%9.3f\t%9.3f\t%9.3f\t%9.3f\t%s\n", phase, latency.getCount(),
+					latency.getMean() / 1000, latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+					latency.getMax() / 1000.0, strategy);
+		}
+	}
+
+	/**
+	 * Writes every measurement as comma-separated values, one row per strategy,
+	 * phase and metric. Latencies are in milliseconds; counters have no
+	 * percentiles.
+	 */
+	public synchronized void writeCsv(Appendable out) throws IOException {
+		out.append("strategy,phase,metric,count,mean,p50,p99,max\n");
+		for (Map.Entry<String, StrategyMetrics> entry : this.strategies.entrySet()) {
+			String name = '"' + entry.getKey().replace("\"", "\"\"") + '"';
+			StrategyMetrics metrics = entry.getValue();
+			this.writeCsvLatency(out, name, "ALL", metrics.total());
+			for (Phase phase : Phase.values()) {
+				this.writeCsvLatency(out, name, phase.name(), metrics.latencies.get(phase));
+			}
+			out.append(String.format(Locale.ROOT, "%s,ALL,timeouts,%d,,,,\n", name, metrics.timeouts));
+			out.append(String.format(Locale.ROOT, "%s,ALL,fallbacks,%d,,,,\n", name, metrics.fallbacks));
+			for (Map.Entry<String, CounterMetrics> counter : metrics.counters.entrySet()) {
+				CounterMetrics values = counter.getValue();
+				out.append(String.format(Locale.ROOT, "%s,ALL,%s,%d,%f,,,%f\n", name, counter.getKey(), values.count,
+						values.mean(), values.max));
+			}
+		}
+	}
+
+	/**
+	 * Utility method for writing one row of latencies. Intended only for internal
+	 * use.
+	 */
+	private void writeCsvLatency(Appendable out, String name, String phase, LatencyHistogram latency)
+			throws IOException {
+		out.append(String.format(Locale.ROOT, "%s,%s,latency_ms,%d,%f,%f,%f,%f\n", name, phase, latency.getCount(),
+				latency.getMean() / 1000, latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+				latency.getMax() / 1000.0));
+	}
+
+	/**
+	 * Writes every measurement as a JSON object with one entry per strategy.
+	 * Latencies are in milliseconds.
+	 */
+	public synchronized void writeJson(Appendable out) throws IOException {
+		out.append("{\"strategies\": [");
+		String separator = "\n";
+		for (Map.Entry<String, StrategyMetrics> entry : this.strategies.entrySet()) {
+			StrategyMetrics metrics = entry.getValue();
+			out.append(separator).append("  {\"name\": ").append(jsonString(entry.getKey()));
+			out.append(", \"timeouts\": ").append(Long.toString(metrics.timeouts));
+			out.append(", \"fallbacks\": ").append(Long.toString(metrics.fallbacks));
+			out.append(",\n   \"latency_ms\": {").append(jsonLatency("ALL", metrics.total()));
+			for (Phase phase : Phase.values()) {
+				out.append(", ").append(jsonLatency(phase.name(), metrics.latencies.get(phase)));
+			}
+			out.append("},\n   \"counters\": {");
+			String counterSeparator = "";
+			for (Map.Entry<String, CounterMetrics> counter : metrics.counters.entrySet()) {
+				CounterMetrics values = counter.getValue();
+				out.append(counterSeparator).append(jsonString(counter.getKey()));
+				out.append(String.format(Locale.ROOT, ": {\"count\": %d, \"mean\": %f, \"max\": %f}", values.count,
+						values.mean(), values.max));
+				counterSeparator = ", ";
+			}
+			out.append("}}");
+			separator = ",\n";
+		}
+		out.append("\n]}\n");
+	}
+
+	/**
+	 * Utility method for formatting latencies as a JSON member. Intended only for
+	 * internal use.
+	 */
+	private static String jsonLatency(String phase, LatencyHistogram latency) {
+		return String.format(Locale.ROOT, "\"%s\": {\"count\": %d, \"mean\": %f, \"p50\": %f, \"p99\": %f, \"max\": %f}",
+				phase, latency.getCount(), latency.getMean() / 1000, latency.getPercentile(50) / 1000.0,
+				latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0);
+	}
+
+	/**
+	 * Utility method for quoting a JSON string. Intended only for internal use.
+	 */
+	private static String jsonString(String value) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+
+}
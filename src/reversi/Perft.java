@@ -0,0 +1,210 @@
+package reversi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaf positions of the game tree to a fixed depth ("perft"), to
+ * check move generation against known counts and to time it. As with
+ * {@link Board#pass()}, a pass counts as a ply, and a game that ends before the
+ * depth is reached counts as a single leaf.
+ */
+public class Perft {
+
+	/**
+	 * The known leaf counts from the initial 8x8 board, indexed by depth.
+	 */
+	private static final long[] REFERENCE = { 1L, 4L, 12L, 56L, 244L, 1396L, 8200L, 55092L, 390216L, 3005288L,
+			24571284L, 212258800L, 1939886636L, 18429641748L, 184042084512L };
+
+	/**
+	 * The number of subtrees to give each thread in parallel counts, so that
+	 * threads finishing early can take more work.
+	 */
+	private static final int TASKS_PER_THREAD = 16;
+
+	private Perft() {
+	}
+
+	/**
+	 * Counts leaves by generating moves on bitboards, the way searches do.
+	 *
+	 * @param board
+	 *          The position to count from.
+	 * @param depth
+	 *          The number of plies to count to.
+	 * @return The number of leaf positions.
+	 */
+	public static long count(Board board, int depth) {
+		Player player = board.getCurrentPlayer();
+		return count(board.discs(player), board.discs(player.opponent()), depth, passed(board));
+	}
+
+	/**
+	 * Counts leaves through {@link Board#play(Square)} and {@link Board#pass()},
+	 * which is much slower than {@link #count(Board, int)} but checks the public
+	 * board interface.
+	 */
+	public static long countWithBoards(Board board, int depth) {
+		if (depth == 0 || board.isComplete()) {
+			return 1;
+		}
+		if (!board.hasCurrentPossibleSquares()) {
+			return countWithBoards(board.pass(), depth - 1);
+		}
+		long nodes = 0;
+		for (Square square : board.getCurrentPossibleSquares()) {
+			nodes += countWithBoards(board.play(square), depth - 1);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Like {@link #count(Board, int)}, but splits the tree near the root and
+	 * counts the subtrees on several threads.
+	 *
+	 * @param threads
+	 *          The number of threads to count with.
+	 */
+	public static long countParallel(Board board, int depth, int threads) throws InterruptedException {
+		Player player = board.getCurrentPlayer();
+		long playerDiscs = board.discs(player);
+		long opponentDiscs = board.discs(player.opponent());
+		boolean passed = passed(board);
+
+		// Split deeper until there are enough subtrees to keep every thread busy
+		List<long[]> subtrees = new ArrayList<>();
+		long nodes = 0;
+		for (int split = 1; split <= depth; ++split) {
+			subtrees.clear();
+			nodes = split(playerDiscs, opponentDiscs, depth, passed, split, subtrees);
+			if (subtrees.size() >= threads * TASKS_PER_THREAD) {
+				break;
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Long>> tasks = new ArrayList<>();
+			for (final long[] subtree : subtrees) {
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() {
+						return count(subtree[0], subtree[1], (int) subtree[2], subtree[3] != 0);
+					}
+				});
+			}
+			for (Future<Long> future : executor.invokeAll(tasks)) {
+				nodes += future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("counting thread failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Utility method for finding whether the move that led to a board was a
+	 * pass. Intended only for internal use.
+	 */
+	private static boolean passed(Board board) {
+		List<Move> moves = board.getMoves();
+		return !moves.isEmpty() && moves.get(moves.size() - 1).getSquare() == Square.PASS;
+	}
+
+	/**
+	 * Utility method for counting leaves on bitboards. At the last ply the moves
+	 * are counted rather than played. Intended only for internal use.
+	 */
+	private static long count(long player, long opponent, int depth, boolean passed) {
+		if (depth == 0) {
+			return 1;
+		}
+		long moves = Bitboards.moves(player, opponent);
+		if (moves == 0) {
+			// Either the game is over, a leaf, or the player passes
+			return passed || depth == 1 ? 1 : count(opponent, player, depth - 1, true);
+		}
+		if (depth == 1) {
+			return Long.bitCount(moves);
+		}
+		long nodes = 0;
+		for (; moves != 0; moves &= moves - 1) {
+			int index = Long.numberOfTrailingZeros(moves);
+			long flips = Bitboards.flips(index, player, opponent);
+			nodes += count(opponent & ~flips, player | flips | 1L << index, depth - 1, false);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Utility method for collecting the subtrees found the given number of plies
+	 * below a position, as {player, opponent, depth, passed}. Intended only for
+	 * internal use.
+	 *
+	 * @return The number of leaves found above the split, from games that ended.
+	 */
+	private static long split(long player, long opponent, int depth, boolean passed, int split, List<long[]> subtrees) {
+		if (split == 0 || depth == 0) {
+			subtrees.add(new long[] { player, opponent, depth, passed ? 1 : 0 });
+			return 0;
+		}
+		long moves = Bitboards.moves(player, opponent);
+		if (moves == 0) {
+			return passed ? 1 : split(opponent, player, depth - 1, true, split - 1, subtrees);
+		}
+		long nodes = 0;
+		for (; moves != 0; moves &= moves - 1) {
+			int index = Long.numberOfTrailingZeros(moves);
+			long flips = Bitboards.flips(index, player, opponent);
+			nodes += split(opponent & ~flips, player | flips | 1L << index, depth - 1, false, split - 1, subtrees);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Counts leaves from the initial board at every depth up to a maximum,
+	 * checking each count against the known one and printing the speed. Exits
+	 * with status 1 if any count is wrong.
+	 * <p>
+	 * Arguments: {@code [depth] [threads] [--boards]}, by default a depth of 10 and
+	 * one thread per processor. With {@code --boards}, every count is also made
+	 * through {@link #countWithBoards(Board, int)}, to at most depth 8.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		boolean boards = args.length > 2 && args[2].equals("--boards");
+
+		Board board = new Board();
+		boolean correct = true;
+		System.out.printf("%5s\t%15s\t%10s\t%15s\t%s\n", "depth", "leaves", "ms", "leaves/s", "check");
+		for (int depth = 1; depth <= maxDepth; ++depth) {
+			long start = System.nanoTime();
+			long nodes = threads > 1 ? countParallel(board, depth, threads) : count(board, depth);
+			long elapsed = System.nanoTime() - start;
+
+			String check = depth < REFERENCE.length ? nodes == REFERENCE[depth] ? "ok" : "WRONG, expected "
+					+ REFERENCE[depth] : "no reference";
+			if (boards && depth <= 8) {
+				long boardNodes = countWithBoards(board, depth);
+				check += boardNodes == nodes ? ", boards ok" : ", boards WRONG: " + boardNodes;
+				correct &= boardNodes == nodes;
+			}
+			correct &= depth >= REFERENCE.length || nodes == REFERENCE[depth];
+			System.out.printf("%5d\t%15d\t%10d\t%15.0f\t%s\n", depth, nodes, elapsed / 1000000, nodes * 1e9 / elapsed,
+					check);
+		}
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+}
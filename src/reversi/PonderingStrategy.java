@@ -0,0 +1,36 @@
+package reversi;
+
+/**
+ * A strategy that can use the time its opponent spends choosing a square, for
+ * example by searching the position it expects to face next. The game calls
+ * these methods on its own thread between moves. They should return quickly,
+ * so any pondering runs on the strategy's own threads.
+ */
+public interface PonderingStrategy extends Strategy {
+  /**
+   * Called when the opponent starts choosing a square.
+   * 
+   * @param board
+   *          The board the opponent is choosing a square on.
+   */
+  public void opponentThinking(Board board);
+
+  /**
+   * Called when the opponent has played, before this strategy is asked for a
+   * square. Pondering should stop here.
+   * 
+   * @param board
+   *          The board after the opponent's move, which is the last of
+   *          {@link Board#getMoves()}.
+   */
+  public void opponentMoved(Board board);
+
+  /**
+   * Called once when the game ends, whether it was completed or a strategy
+   * timed out. Pondering must stop here.
+   * 
+   * @param board
+   *          The last board of the game.
+   */
+  public void gameOver(Board board);
+}
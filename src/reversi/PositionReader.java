@@ -0,0 +1,47 @@
+package reversi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the labelled positions written by {@link PositionWriter} from a
+ * channel, one at a time. Not thread-safe.
+ */
+public class PositionReader extends RecordReader<LabelledPosition> {
+
+	/**
+	 * Starts reading a file from a channel by checking the format header.
+	 *
+	 * @throws IOException
+	 *           If the channel does not start with a supported header.
+	 */
+	public PositionReader(ReadableByteChannel channel) throws IOException {
+		super(channel, PositionWriter.MAGIC, PositionWriter.VERSION, "labelled position", PositionWriter.POSITION_BYTES);
+	}
+
+	/**
+	 * Opens the file at the given path.
+	 */
+	public static PositionReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new PositionReader(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	protected LabelledPosition decode(ByteBuffer buffer) {
+		long playerDiscs = buffer.getLong();
+		long opponentDiscs = buffer.getLong();
+		int label = buffer.get();
+		return new LabelledPosition(playerDiscs, opponentDiscs, label);
+	}
+
+}
@@ -0,0 +1,45 @@
+package reversi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Writes labelled positions to a channel in a fixed-size binary format, read
+ * back by {@link PositionReader}. After the format header of
+ * {@link RecordWriter}, each position takes 17 bytes: the player's and the
+ * opponent's bitboards and the signed label.
+ */
+public class PositionWriter extends RecordWriter<LabelledPosition> {
+
+	static final int MAGIC = 0x52565053; // "RVPS"
+	static final byte VERSION = 1;
+	static final int POSITION_BYTES = 2 * Long.BYTES + 1;
+
+	/**
+	 * Starts a new file on a channel by writing the format header.
+	 */
+	public PositionWriter(WritableByteChannel channel) {
+		super(channel, MAGIC, VERSION);
+	}
+
+	/**
+	 * Creates or replaces the file at the given path.
+	 */
+	public static PositionWriter open(Path path) throws IOException {
+		return new PositionWriter(create(path));
+	}
+
+	@Override
+	protected int size(LabelledPosition position) {
+		return POSITION_BYTES;
+	}
+
+	@Override
+	protected void encode(LabelledPosition position, ByteBuffer buffer) {
+		buffer.putLong(position.getPlayerDiscs()).putLong(position.getOpponentDiscs());
+		buffer.put((byte) position.getLabel());
+	}
+
+}
@@ -0,0 +1,173 @@
+package reversi;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the records written by a {@link RecordWriter} from a channel, one at a
+ * time. Only a fixed-size buffer is held in memory, so files of any size can be
+ * streamed. Subclasses decode the records. Not thread-safe.
+ *
+ * @param <T>
+ *          The type of the records.
+ */
+public abstract class RecordReader<T> implements Closeable, Iterable<T> {
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(RecordWriter.BUFFER_BYTES);
+	private final String name;
+	private final int minBytes;
+	private long records;
+
+	/**
+	 * Starts reading a file from a channel by checking the format header.
+	 *
+	 * @param name
+	 *          What a record is called in error messages.
+	 * @param minBytes
+	 *          The fewest bytes a record takes.
+	 * @throws IOException
+	 *           If the channel does not start with the given magic number and
+	 *           version.
+	 */
+	protected RecordReader(ReadableByteChannel channel, int magic, byte version, String name, int minBytes)
+			throws IOException {
+		this.channel = channel;
+		this.name = name;
+		this.minBytes = minBytes;
+		this.buffer.flip();
+		if (!this.fill(5) || this.buffer.getInt() != magic) {
+			throw new IOException("not a " + name + " file");
+		}
+		byte found = this.buffer.get();
+		if (found != version) {
+			throw new IOException("unsupported " + name + " version " + found);
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return The record, or null at the end of the file.
+	 * @throws EOFException
+	 *           If the file ends part way through a record.
+	 * @throws IOException
+	 *           If the record is malformed.
+	 */
+	public T read() throws IOException {
+		if (!this.fill(this.minBytes)) {
+			if (this.buffer.hasRemaining()) {
+				throw this.truncated();
+			}
+			return null;
+		}
+		T record = this.decode(this.buffer);
+		++this.records;
+		return record;
+	}
+
+	/**
+	 * Decodes the next record from the buffer, which holds at least the fewest
+	 * bytes a record takes. Records of varying size must {@link #require(int)}
+	 * the rest.
+	 *
+	 * @throws IOException
+	 *           If the record is malformed.
+	 */
+	protected abstract T decode(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Buffers at least the given number of bytes, for a record that is longer
+	 * than the fewest bytes.
+	 *
+	 * @throws EOFException
+	 *           If the file ends first.
+	 */
+	protected void require(int bytes) throws IOException {
+		if (!this.fill(bytes)) {
+			throw this.truncated();
+		}
+	}
+
+	/**
+	 * Utility method for reading from the channel until at least the given number
+	 * of bytes are buffered. Intended only for internal use.
+	 *
+	 * @return False if the channel ended first.
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (this.buffer.remaining() >= bytes) {
+			return true;
+		}
+		this.buffer.compact();
+		try {
+			while (this.buffer.position() < bytes) {
+				if (this.channel.read(this.buffer) < 0) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			this.buffer.flip();
+		}
+	}
+
+	/**
+	 * Utility method for describing a file that ends part way through a record.
+	 * Intended only for internal use.
+	 */
+	private EOFException truncated() {
+		return new EOFException("truncated " + this.name + " after " + this.records + " records");
+	}
+
+	/**
+	 * @return The number of records read so far.
+	 */
+	public long getRecordCount() {
+		return this.records;
+	}
+
+	/**
+	 * Iterates over the remaining records. I/O errors are rethrown as unchecked
+	 * {@link IllegalStateException}s.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private T next;
+
+			@Override
+			public boolean hasNext() {
+				if (this.next == null) {
+					try {
+						this.next = read();
+					} catch (IOException e) {
+						throw new IllegalStateException("could not read " + name, e);
+					}
+				}
+				return this.next != null;
+			}
+
+			@Override
+			public T next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				T record = this.next;
+				this.next = null;
+				return record;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+}
@@ -0,0 +1,99 @@
+package reversi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes records to a channel in a binary format, read back by a
+ * {@link RecordReader}. The format is a four-byte magic number and a version
+ * byte, followed by the records, which subclasses encode.
+ * <p>
+ * Records are buffered, so the writer must be closed (or flushed) for the last
+ * of them to reach the channel. Not thread-safe.
+ *
+ * @param <T>
+ *          The type of the records.
+ */
+public abstract class RecordWriter<T> implements Closeable {
+
+	static final int BUFFER_BYTES = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private long records;
+
+	/**
+	 * Starts a new file on a channel by writing the format header.
+	 */
+	protected RecordWriter(WritableByteChannel channel, int magic, byte version) {
+		this.channel = channel;
+		this.buffer.putInt(magic).put(version);
+	}
+
+	/**
+	 * Utility method for creating or replacing the file at the given path.
+	 * Intended only for use by subclasses.
+	 */
+	protected static FileChannel create(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Appends a record.
+	 */
+	public void write(T record) throws IOException {
+		if (this.buffer.remaining() < this.size(record)) {
+			this.flush();
+		}
+		this.encode(record, this.buffer);
+		++this.records;
+	}
+
+	/**
+	 * @return The number of bytes the record takes, at most
+	 *         {@value #BUFFER_BYTES}.
+	 */
+	protected abstract int size(T record);
+
+	/**
+	 * Encodes a record into the buffer, which has room for its size.
+	 */
+	protected abstract void encode(T record, ByteBuffer buffer);
+
+	/**
+	 * @return The number of records written so far.
+	 */
+	public long getRecordCount() {
+		return this.records;
+	}
+
+	/**
+	 * Writes every buffered record to the channel.
+	 */
+	public void flush() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Flushes the buffered records and closes the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package reversi;
+
+import java.util.Map;
+
+/**
+ * A strategy that reports counters about how it chose its most recent square,
+ * such as the number of positions searched. The game collects them into its
+ * {@link MoveMetrics} after every move.
+ */
+public interface ReportingStrategy extends Strategy {
+  /**
+   * Called on the thread that ran {@link #chooseSquare(Board)}, right after it
+   * returns.
+   * 
+   * @return Counters about the most recent call to {@link #chooseSquare(Board)},
+   *         by name. Counters that do not apply may be left out.
+   */
+  public Map<String, Number> getMoveCounters();
+}
@@ -1,24 +1,64 @@
 package reversi;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * A game of Reversi, played by two strategies.
+ * A game of Reversi, played by two strategies. A {@link PonderingStrategy} is
+ * told whenever its opponent is choosing a square and what it played. A
+ * {@link DeadlineStrategy} that runs out of time plays the best square it has
+ * published instead of timing out.
+ * <p>
+ * By default each move must be chosen within a fixed timeout, measured in
+ * wall-clock time. Games can instead give each player a bank of time for the
+ * whole game, topped up by an increment after every move, and can charge
+ * strategies for the CPU time of the thread that chooses their squares, so
+ * that many games sharing a host are timed fairly.
  */
 public class Reversi {
 
+	/**
+	 * Measures the CPU time of the threads that choose squares.
+	 */
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Gets the id {@link #THREADS} knows a thread by: {@code Thread.threadId()}
+	 * where available, as {@code Thread.getId()} is deprecated from Java 19.
+	 */
+	private static final Method THREAD_ID = threadIdMethod();
+
+	/**
+	 * How many times its CPU budget a strategy may take in wall-clock time, so
+	 * that a strategy blocked without using the CPU cannot stall the game.
+	 */
+	private static final int WALL_LIMIT_FACTOR = 10;
+
 	private Map<Player, Strategy> strategies; 
 	private long timeout; //The maximum time allowed to a strategy for choosing a square.
 	private TimeUnit timeoutUnit; //The unit of the timeout
-
+	private ExecutorService executor; //Runs the strategies, or null for one executor per game
+	private MoveMetrics metrics; //Records every move, or null
+	private Map<Player, String> names; //The names the strategies are recorded under
+	private boolean cpuTime; //Whether thinking time is measured as thread CPU time
+	private Map<Player, Long> banks; //The time left to each player in nanoseconds, or null for a timeout per move
+	private long increment; //Added to a player's bank after each of their moves, in nanoseconds
+	private Map<Player, Call> abandoned = new EnumMap<>(Player.class); //Calls still running after a player ran out of time
 
 	/**
 	 * Creates a new Reversi game.
@@ -44,6 +84,109 @@ public class Reversi {
 		this.timeoutUnit = timeoutUnit;
 	}
 
+	/**
+	 * Creates a new Reversi game that chooses moves on a shared executor, such as
+	 * one from {@link MoveExecutors}. Many games can share one executor instead of
+	 * each starting a thread of its own.
+	 * 
+	 * @param blackStrategy
+	 *          The strategy used to play the black pieces.
+	 * @param whiteStrategy
+	 *          The strategy used to play the white pieces.
+	 * @param timeout
+	 *          The maximum time allowed to a strategy for choosing a square.
+	 * @param timeoutUnit
+	 *          The unit of the timeout
+	 * @param executor
+	 *          Runs the strategies' {@link Strategy#chooseSquare(Board)} calls.
+	 *          The game does not shut it down.
+	 */
+	public Reversi(
+			Strategy blackStrategy,
+			Strategy whiteStrategy,
+			long timeout,
+			TimeUnit timeoutUnit,
+			ExecutorService executor) {
+		this(blackStrategy, whiteStrategy, timeout, timeoutUnit);
+		this.executor = executor;
+	}
+
+	/**
+	 * Records the time taken by every move of this game, along with any counters
+	 * published by {@link ReportingStrategy} strategies.
+	 * 
+	 * @param metrics
+	 *          Where to record the moves. May be shared with other games.
+	 * @param blackName
+	 *          The name to record the black strategy's moves under.
+	 * @param whiteName
+	 *          The name to record the white strategy's moves under.
+	 */
+	public void setMetrics(MoveMetrics metrics, String blackName, String whiteName) {
+		this.metrics = metrics;
+		this.names = new HashMap<>();
+		this.names.put(Player.BLACK, blackName);
+		this.names.put(Player.WHITE, whiteName);
+	}
+
+	/**
+	 * Measures the time taken by the strategies as the CPU time used by the
+	 * thread that runs {@link Strategy#chooseSquare(Board)}, rather than as
+	 * wall-clock time. A strategy is then not charged for time spent waiting for
+	 * a processor, but nor for work done on other threads, so this suits
+	 * strategies that think on the calling thread. A strategy may still take at
+	 * most ten times its budget in wall-clock time.
+	 * <p>
+	 * The JVM cannot measure the CPU time of virtual threads, so the executor
+	 * must run moves on platform threads, such as one from
+	 * {@link MoveExecutors#shared()}. Choosing a square on a virtual thread
+	 * throws an {@link IllegalStateException} instead of charging nothing.
+	 *
+	 * @throws UnsupportedOperationException
+	 *           If the JVM cannot measure thread CPU time.
+	 */
+	public void setCpuTime(boolean cpuTime) {
+		if (cpuTime && !THREADS.isCurrentThreadCpuTimeSupported()) {
+			throw new UnsupportedOperationException("thread CPU time is not supported by this JVM");
+		}
+		if (cpuTime && !THREADS.isThreadCpuTimeEnabled()) {
+			THREADS.setThreadCpuTimeEnabled(true);
+		}
+		this.cpuTime = cpuTime;
+	}
+
+	/**
+	 * Gives each player a bank of time for the whole game, instead of a timeout
+	 * per move. A move may use all the time left in the bank, and the increment
+	 * is added after every move. A {@link DeadlineStrategy} is given a deadline
+	 * that shares the bank out over the moves it has left.
+	 *
+	 * @param bank
+	 *          The time each player starts the game with.
+	 * @param increment
+	 *          The time added to a player's bank after each of their moves.
+	 * @param unit
+	 *          The unit of the bank and the increment.
+	 */
+	public void setTimeBank(long bank, long increment, TimeUnit unit) {
+		this.banks = new EnumMap<>(Player.class);
+		for (Player player : Player.values()) {
+			this.banks.put(player, unit.toNanos(bank));
+		}
+		this.increment = unit.toNanos(increment);
+	}
+
+	/**
+	 * @return The time left in a player's bank, or the timeout per move if there
+	 *         are no banks.
+	 */
+	public long getRemainingTime(Player player, TimeUnit unit) {
+		if (this.banks == null) {
+			return unit.convert(this.timeout, this.timeoutUnit);
+		}
+		return unit.convert(this.banks.get(player), TimeUnit.NANOSECONDS);
+	}
+
 	/**
 	 * Plays the strategies on the given Reversi board.
 	 * 
@@ -54,33 +197,382 @@ public class Reversi {
 	 *           If a strategy exceeds the alloted time to choose a square.
 	 */
 	public Board play(Board board) throws StrategyTimedOutException {
-		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ExecutorService executor = this.executor != null ? this.executor : Executors.newSingleThreadExecutor();
 		Board curr = board;
-		while (!curr.isComplete()) {
-			if (curr.getCurrentPossibleSquares().isEmpty()) {
-				curr = curr.pass();
-			} else {
-				Player player = curr.getCurrentPlayer();
-				final Strategy strategy = this.strategies.get(player);
-				final Board boardForFuture = curr;
-				Future<Square> future = executor.submit(new Callable<Square>() {
-					@Override
-					public Square call() throws Exception {
-						return strategy.chooseSquare(boardForFuture);
+		try {
+			while (!curr.isComplete()) {
+				if (!curr.hasCurrentPossibleSquares()) {
+					curr = curr.pass();
+				} else {
+					PonderingStrategy ponderer = this.ponderer(curr.getCurrentPlayer().opponent());
+					if (ponderer != null) {
+						this.awaitReturn(curr.getCurrentPlayer().opponent());
+						ponderer.opponentThinking(curr);
+					}
+					curr = curr.play(this.chooseSquare(executor, curr));
+					if (ponderer != null) {
+						ponderer.opponentMoved(curr);
 					}
-				});
-				Square square;
+				}
+			}
+			return curr;
+		} finally {
+			for (Player player : Player.values()) {
+				PonderingStrategy ponderer = this.ponderer(player);
+				if (ponderer == null) {
+					continue;
+				}
 				try {
-					square = future.get(this.timeout, this.timeoutUnit);
-				} catch (InterruptedException | ExecutionException | TimeoutException e) {
-					future.cancel(true);
+					this.awaitReturn(player);
+				} catch (StrategyTimedOutException e) {
+					// Still running the call it timed out on, so not pondering
+					continue;
+				}
+				ponderer.gameOver(curr);
+			}
+			// Only shut down an executor this game created for itself
+			if (executor != this.executor) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Utility method for finding whether a player's strategy ponders. A strategy
+	 * playing both sides is never asked to. Intended only for internal use.
+	 *
+	 * @return The strategy, or null if it does not ponder.
+	 */
+	private PonderingStrategy ponderer(Player player) {
+		Strategy strategy = this.strategies.get(player);
+		if (strategy instanceof PonderingStrategy && strategy != this.strategies.get(player.opponent())) {
+			return (PonderingStrategy) strategy;
+		}
+		return null;
+	}
+
+	/**
+	 * Utility method for waiting until a player's strategy has returned from a
+	 * call the game abandoned when it ran out of time, so that a strategy is
+	 * never called again while still running. It may take at most its budget.
+	 * Intended only for internal use.
+	 *
+	 * @throws StrategyTimedOutException
+	 *           If the strategy is still running.
+	 */
+	private void awaitReturn(Player player) throws StrategyTimedOutException {
+		Strategy strategy = this.strategies.get(player);
+		long deadline = System.nanoTime() + this.budget(player);
+		for (Player other : Player.values()) {
+			Call call = this.abandoned.get(other);
+			if (call == null || this.strategies.get(other) != strategy) {
+				continue;
+			}
+			try {
+				if (!call.awaitReturn(deadline - System.nanoTime())) {
 					throw new StrategyTimedOutException(strategy, this.strategies.get(player.opponent()));
 				}
-				curr = curr.play(square);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StrategyTimedOutException(strategy, this.strategies.get(player.opponent()));
+			}
+			this.abandoned.remove(other);
+		}
+	}
+
+	/**
+	 * Utility method for finding a player's budget for their next move: the
+	 * timeout, or the time left in their bank. Intended only for internal use.
+	 */
+	private long budget(Player player) {
+		return this.banks != null ? this.banks.get(player) : this.timeoutUnit.toNanos(this.timeout);
+	}
+
+	/**
+	 * Utility method for asking the current player's strategy for a square within
+	 * its budget: the timeout, or the time left in its bank. Intended only for
+	 * internal use.
+	 */
+	private Square chooseSquare(ExecutorService executor, final Board board) throws StrategyTimedOutException {
+		Player player = board.getCurrentPlayer();
+		this.awaitReturn(player);
+		final Strategy strategy = this.strategies.get(player);
+		final AtomicReference<Map<String, Number>> counters = new AtomicReference<>();
+		final BestMove bestMove = new BestMove();
+		final ThinkingTime time = new ThinkingTime(this.cpuTime);
+		final Call call = new Call();
+		// The strategy may still read the board after running out of time, so
+		// check its published square against moves found before it starts
+		long legal = board.getPossibleMoves();
+		long budget = this.budget(player);
+		final long deadline = time.wallStart + this.allotment(board, budget);
+		Future<Square> future = executor.submit(new Callable<Square>() {
+			@Override
+			public Square call() throws Exception {
+				if (!call.start()) {
+					return null;
+				}
+				try {
+					time.started();
+					Square square = strategy instanceof DeadlineStrategy
+							? ((DeadlineStrategy) strategy).chooseSquare(board, deadline, bestMove)
+							: strategy.chooseSquare(board);
+					if (strategy instanceof ReportingStrategy) {
+						counters.set(((ReportingStrategy) strategy).getMoveCounters());
+					}
+					return square;
+				} finally {
+					time.finished();
+					call.returned();
+				}
+			}
+		});
+		try {
+			Square square = this.await(future, time, budget);
+			long elapsed = time.elapsed();
+			this.charge(player, elapsed);
+			if (this.metrics != null) {
+				this.metrics.recordMove(this.names.get(player), board, elapsed, this.counters(player, time, counters.get()));
+			}
+			return square;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StrategyTimedOutException(strategy, this.strategies.get(player.opponent()));
+		} catch (TimeoutException e) {
+			// Play the best square published in time, if it can be played
+			long elapsed = time.elapsed();
+			Square square = bestMove.get();
+			if (square != null && square.getIndex() >= 0 && (legal & 1L << square.getIndex()) != 0) {
+				this.charge(player, elapsed);
+				if (this.metrics != null) {
+					this.metrics.recordFallback(this.names.get(player), board, elapsed);
+				}
+				return square;
+			}
+			if (this.metrics != null) {
+				this.metrics.recordTimeout(this.names.get(player), board, elapsed);
+			}
+			throw new StrategyTimedOutException(strategy, this.strategies.get(player.opponent()));
+		} catch (ExecutionException e) {
+			if (time.isUnmeasurable()) {
+				throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+			}
+			if (this.metrics != null) {
+				this.metrics.recordTimeout(this.names.get(player), board, time.elapsed());
+			}
+			throw new StrategyTimedOutException(strategy, this.strategies.get(player.opponent()));
+		} finally {
+			// Interrupt the strategy if it is still running, so it does not keep a
+			// thread of a shared executor busy, and wait for it to return before
+			// calling it again
+			future.cancel(true);
+			if (!call.abandon()) {
+				this.abandoned.put(player, call);
+			}
+		}
+	}
+
+	/**
+	 * Utility method for finding how long a {@link DeadlineStrategy} should aim
+	 * to take: the whole timeout, or an even share of the bank over the moves
+	 * the player has left, plus the increment. Intended only for internal use.
+	 */
+	private long allotment(Board board, long budget) {
+		if (this.banks == null) {
+			return budget;
+		}
+		int empties = 64 - Long.bitCount(board.discs(Player.BLACK) | board.discs(Player.WHITE));
+		int movesLeft = Math.max(1, (empties + 1) / 2);
+		return Math.min(budget, budget / movesLeft + this.increment);
+	}
+
+	/**
+	 * Utility method for waiting until a strategy chooses a square or uses up
+	 * its budget. A thread cannot use more CPU time than the wall-clock time that
+	 * passes, so waiting for the budget left is never too long. Intended only for
+	 * internal use.
+	 */
+	private Square await(Future<Square> future, ThinkingTime time, long budget) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		long wallLimit = time.wallStart + (this.cpuTime ? WALL_LIMIT_FACTOR * budget : budget);
+		while (true) {
+			long left = Math.min(budget - time.elapsed(), wallLimit - System.nanoTime());
+			if (left <= 0 && !future.isDone()) {
+				throw new TimeoutException();
+			}
+			try {
+				return future.get(Math.max(left, 0), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				// Check the time used again, which may be less than the time waited
+			}
+		}
+	}
+
+	/**
+	 * Utility method for taking the time used by a move from the player's bank
+	 * and adding the increment. Intended only for internal use.
+	 */
+	private void charge(Player player, long elapsed) {
+		if (this.banks != null) {
+			this.banks.put(player, Math.max(0, this.banks.get(player) - elapsed) + this.increment);
+		}
+	}
+
+	/**
+	 * Utility method for adding the clock to the counters published by a
+	 * strategy: the time left in the bank after the move and, when charging CPU
+	 * time, the wall-clock time the move took. Intended only for internal use.
+	 */
+	private Map<String, Number> counters(Player player, ThinkingTime time, Map<String, Number> counters) {
+		if (this.banks == null && !this.cpuTime) {
+			return counters;
+		}
+		Map<String, Number> all = counters != null ? new HashMap<>(counters) : new HashMap<String, Number>();
+		if (this.banks != null) {
+			all.put("bankMs", TimeUnit.NANOSECONDS.toMillis(this.banks.get(player)));
+		}
+		if (this.cpuTime) {
+			all.put("wallMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time.wallStart));
+		}
+		return all;
+	}
+
+	/**
+	 * The time a strategy has spent choosing a square, as wall-clock time or as
+	 * the CPU time of the thread that runs it.
+	 */
+	private static class ThinkingTime {
+		final boolean cpu;
+		final long wallStart = System.nanoTime();
+		// Written by the thread choosing the square, which is unknown until it starts
+		private volatile long cpuStart;
+		private volatile long cpuEnd = -1;
+		private volatile long thread = -1;
+		private volatile boolean unmeasurable;
+
+		ThinkingTime(boolean cpu) {
+			this.cpu = cpu;
+		}
+
+		void started() {
+			if (this.cpu) {
+				long cpuStart = THREADS.getCurrentThreadCpuTime();
+				if (cpuStart < 0) {
+					this.unmeasurable = true;
+					throw new IllegalStateException("cannot measure the CPU time of " + Thread.currentThread()
+							+ "; choose squares on platform threads to charge CPU time");
+				}
+				this.cpuStart = cpuStart;
+				this.thread = threadId(Thread.currentThread());
+			}
+		}
+
+		boolean isUnmeasurable() {
+			return this.unmeasurable;
+		}
+
+		void finished() {
+			if (this.cpu) {
+				this.cpuEnd = THREADS.getCurrentThreadCpuTime();
+			}
+		}
+
+		long elapsed() {
+			if (!this.cpu) {
+				return System.nanoTime() - this.wallStart;
+			}
+			long thread = this.thread;
+			if (thread < 0) {
+				return 0;
+			}
+			long end = this.cpuEnd;
+			if (end < 0) {
+				end = THREADS.getThreadCpuTime(thread);
+			}
+			return Math.max(0, end - this.cpuStart);
+		}
+	}
+
+	/**
+	 * A call to a strategy on the executor, which the game may abandon when the
+	 * strategy runs out of time. An abandoned call that has not started never
+	 * will, and one that has started keeps the strategy busy until it returns.
+	 */
+	private static class Call {
+		private static final int PENDING = 0, RUNNING = 1, RETURNED = 2;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * @return False if the call was abandoned before it started.
+		 */
+		boolean start() {
+			return this.state.compareAndSet(PENDING, RUNNING);
+		}
+
+		void returned() {
+			this.state.set(RETURNED);
+			this.done.countDown();
+		}
+
+		/**
+		 * @return True if the strategy is not running the call.
+		 */
+		boolean abandon() {
+			if (this.state.compareAndSet(PENDING, RETURNED)) {
+				this.done.countDown();
+			}
+			return this.state.get() == RETURNED;
+		}
+
+		boolean awaitReturn(long nanos) throws InterruptedException {
+			return this.done.await(nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Utility method for finding the id of a thread. Intended only for internal
+	 * use.
+	 */
+	private static long threadId(Thread thread) {
+		try {
+			return (Long) THREAD_ID.invoke(thread);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("could not find the id of " + thread, e);
+		}
+	}
+
+	/**
+	 * Utility method for finding {@code Thread.threadId()} without requiring
+	 * Java 19 to compile, or {@code Thread.getId()} before it. Intended only for
+	 * internal use.
+	 */
+	private static Method threadIdMethod() {
+		try {
+			return Thread.class.getMethod("threadId");
+		} catch (NoSuchMethodException e) {
+			try {
+				return Thread.class.getMethod("getId");
+			} catch (NoSuchMethodException impossible) {
+				throw new AssertionError(impossible);
+			}
+		}
+	}
+
+	/**
+	 * Utility method for closing a strategy that holds threads or other resources
+	 * once it has played its last game. Strategies that are not
+	 * {@link AutoCloseable} are left alone. Intended only for use within this
+	 * package.
+	 */
+	static void close(Strategy strategy) {
+		if (strategy instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) strategy).close();
+			} catch (Exception e) {
+				throw new IllegalStateException("could not close " + strategy, e);
 			}
 		}
-		executor.shutdownNow();
-		return curr;
 	}
 
 	/**
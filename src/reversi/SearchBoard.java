@@ -0,0 +1,218 @@
+package reversi;
+
+/**
+ * A mutable Reversi board for searching. Moves are made and unmade in place,
+ * with the previous positions kept on a fixed-size undo stack, so a search can
+ * visit any number of positions without allocating. Convert to and from the
+ * immutable {@link Board} with {@link #SearchBoard(Board)} and
+ * {@link #toBoard()}.
+ */
+public class SearchBoard {
+
+	/**
+	 * The maximum number of moves and passes that can be made on top of the
+	 * starting board: one per empty square, plus one pass before each of them.
+	 */
+	public static final int MAX_PLIES = 2 * Bitboards.SQUARES;
+
+	/**
+	 * The index recorded on the undo stack for a pass.
+	 */
+	public static final int PASS = -1;
+
+	private final Board origin;
+	private Player player;
+	private long playerDiscs;
+	private long opponentDiscs;
+	private long key;
+
+	// The undo stack: the position before each move along with the move itself
+	private final long[] playerStack = new long[MAX_PLIES];
+	private final long[] opponentStack = new long[MAX_PLIES];
+	private final long[] keyStack = new long[MAX_PLIES];
+	private final int[] moveStack = new int[MAX_PLIES];
+	private int ply;
+
+	/**
+	 * Creates a search board in the same state as the given board.
+	 *
+	 * @param board
+	 *          The board to start searching from.
+	 */
+	public SearchBoard(Board board) {
+		this.origin = board;
+		this.player = board.getCurrentPlayer();
+		this.playerDiscs = board.discs(this.player);
+		this.opponentDiscs = board.discs(this.player.opponent());
+		this.key = board.getZobristKey();
+	}
+
+	/**
+	 * @return An immutable board in the current state of this search board, with
+	 *         the moves made since the starting board appended to its history.
+	 */
+	public Board toBoard() {
+		Board board = this.origin;
+		for (int i = 0; i < this.ply; ++i) {
+			int index = this.moveStack[i];
+			board = index == PASS ? board.pass() : board.play(Square.of(index));
+		}
+		return board;
+	}
+
+	/**
+	 * @return The player that gets to choose a square next.
+	 */
+	public Player getCurrentPlayer() {
+		return this.player;
+	}
+
+	/**
+	 * @return The bitboard of squares occupied by the current player.
+	 */
+	public long getPlayerDiscs() {
+		return this.playerDiscs;
+	}
+
+	/**
+	 * @return The bitboard of squares occupied by the opponent of the current
+	 *         player.
+	 */
+	public long getOpponentDiscs() {
+		return this.opponentDiscs;
+	}
+
+	/**
+	 * @return The Zobrist key of the current position, the same as
+	 *         {@link Board#getZobristKey()} for the equivalent board.
+	 */
+	public long getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return The bitboard of squares where the current player may play.
+	 */
+	public long getPossibleMoves() {
+		return Bitboards.moves(this.playerDiscs, this.opponentDiscs);
+	}
+
+	/**
+	 * @return True if neither player can play, false otherwise.
+	 */
+	public boolean isComplete() {
+		return Bitboards.moves(this.playerDiscs, this.opponentDiscs) == 0
+				&& Bitboards.moves(this.opponentDiscs, this.playerDiscs) == 0;
+	}
+
+	/**
+	 * @return The number of empty squares.
+	 */
+	public int getEmptyCount() {
+		return Long.bitCount(~(this.playerDiscs | this.opponentDiscs));
+	}
+
+	/**
+	 * @return The number of squares occupied by the current player minus the
+	 *         number occupied by the opponent.
+	 */
+	public int getDiscDifference() {
+		return Long.bitCount(this.playerDiscs) - Long.bitCount(this.opponentDiscs);
+	}
+
+	/**
+	 * @return The number of moves and passes made since the starting board.
+	 */
+	public int getPly() {
+		return this.ply;
+	}
+
+	/**
+	 * Places a piece for the current player at the given square.
+	 *
+	 * @param square
+	 *          The square where the current player places their piece. Must be a
+	 *          valid play, as for {@link Board#play(Square)}.
+	 * @return The bitboard of opponent pieces captured by the play.
+	 */
+	public long makeMove(Square square) {
+		if (square.getIndex() < 0) {
+			String message = "%s is not a square on this board";
+			throw new IllegalArgumentException(String.format(message, square));
+		}
+		return this.makeMove(square.getIndex());
+	}
+
+	/**
+	 * Places a piece for the current player at the square with the given bitboard
+	 * index.
+	 *
+	 * @param index
+	 *          The bitboard index of a square where the current player may play.
+	 * @return The bitboard of opponent pieces captured by the play.
+	 */
+	public long makeMove(int index) {
+		if (index < 0 || index >= Bitboards.SQUARES) {
+			String message = "%d is not a square index on this board";
+			throw new IllegalArgumentException(String.format(message, index));
+		}
+		long flips = Bitboards.flips(index, this.playerDiscs, this.opponentDiscs);
+		if (flips == 0 || ((this.playerDiscs | this.opponentDiscs) & 1L << index) != 0) {
+			String message = "%s cannot play at index %d";
+			throw new IllegalArgumentException(String.format(message, this.player, index));
+		}
+		this.push(index);
+		long newPlayerDiscs = this.playerDiscs | flips | 1L << index;
+		this.playerDiscs = this.opponentDiscs & ~flips;
+		this.opponentDiscs = newPlayerDiscs;
+		this.key ^= Zobrist.disc(this.player, index) ^ Zobrist.flips(flips) ^ Zobrist.WHITE_TO_MOVE;
+		this.player = this.player.opponent();
+		return flips;
+	}
+
+	/**
+	 * Passes the current player's turn. Only valid when the current player has no
+	 * possible moves; this is not checked, since searches already know it.
+	 */
+	public void makePass() {
+		this.push(PASS);
+		long newPlayerDiscs = this.playerDiscs;
+		this.playerDiscs = this.opponentDiscs;
+		this.opponentDiscs = newPlayerDiscs;
+		this.key ^= Zobrist.WHITE_TO_MOVE;
+		this.player = this.player.opponent();
+	}
+
+	/**
+	 * Takes back the most recent move or pass.
+	 *
+	 * @return The bitboard index of the square that was played, or {@link #PASS}.
+	 */
+	public int undoMove() {
+		if (this.ply == 0) {
+			throw new IllegalStateException("no moves to undo");
+		}
+		--this.ply;
+		this.playerDiscs = this.playerStack[this.ply];
+		this.opponentDiscs = this.opponentStack[this.ply];
+		this.key = this.keyStack[this.ply];
+		this.player = this.player.opponent();
+		return this.moveStack[this.ply];
+	}
+
+	/**
+	 * Utility method for saving the current position on the undo stack. Intended
+	 * only for internal use.
+	 */
+	private void push(int index) {
+		if (this.ply == MAX_PLIES) {
+			throw new IllegalStateException("undo stack is full after " + MAX_PLIES + " plies");
+		}
+		this.playerStack[this.ply] = this.playerDiscs;
+		this.opponentStack[this.ply] = this.opponentDiscs;
+		this.keyStack[this.ply] = this.key;
+		this.moveStack[this.ply] = index;
+		++this.ply;
+	}
+
+}
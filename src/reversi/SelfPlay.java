@@ -0,0 +1,363 @@
+package reversi;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import reversi.MoveMetrics.Phase;
+import strategy.RandomStrategy;
+
+/**
+ * Generates training positions by having a strategy play against itself. Games
+ * run concurrently on a pool of worker threads, without timeouts. Each position
+ * is sampled at a rate set for its game phase. When a game ends, its samples
+ * are labelled with the final disc difference and queued for a single writer
+ * thread. The queue is bounded, so the workers wait whenever the writer falls
+ * behind rather than piling positions up in memory.
+ * <p>
+ * Each worker gets its own black and white strategy from the factory and
+ * reuses them for every game it plays.
+ */
+public class SelfPlay {
+
+	/**
+	 * Queued after the last batch to stop the writer.
+	 */
+	private static final List<LabelledPosition> END = Collections.emptyList();
+
+	private final Supplier<? extends Strategy> factory;
+	private final int workers;
+	private final Map<Phase, Double> sampleRates = new EnumMap<>(Phase.class);
+	private int randomMoves;
+	private int queueCapacity = 1024;
+	private long reportNanos = TimeUnit.SECONDS.toNanos(10);
+
+	// Progress of the current run
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong positions = new AtomicLong();
+	private volatile long written;
+
+	/**
+	 * Creates a generator that samples every position.
+	 *
+	 * @param factory
+	 *          Creates the strategies that play the games. Those that are
+	 *          {@link AutoCloseable} are closed when their worker finishes.
+	 * @param workers
+	 *          The number of games to play at once.
+	 */
+	public SelfPlay(Supplier<? extends Strategy> factory, int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("at least one worker is needed, not " + workers);
+		}
+		this.factory = factory;
+		this.workers = workers;
+		for (Phase phase : Phase.values()) {
+			this.sampleRates.put(phase, 1.0);
+		}
+	}
+
+	/**
+	 * @param phase
+	 *          A game phase.
+	 * @param rate
+	 *          The chance of sampling each position in the phase, from 0 to 1.
+	 */
+	public void setSampleRate(Phase phase, double rate) {
+		if (!(rate >= 0 && rate <= 1)) {
+			throw new IllegalArgumentException("not a sampling rate: " + rate);
+		}
+		this.sampleRates.put(phase, rate);
+	}
+
+	/**
+	 * Plays the given number of moves at random at the start of every game, so
+	 * that deterministic strategies do not play the same game over and over.
+	 */
+	public void setRandomMoves(int randomMoves) {
+		this.randomMoves = randomMoves;
+	}
+
+	/**
+	 * @param queueCapacity
+	 *          The number of games whose samples may wait for the writer.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param interval
+	 *          The time between progress reports.
+	 * @param unit
+	 *          The unit of the interval.
+	 */
+	public void setReportInterval(long interval, TimeUnit unit) {
+		this.reportNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * Plays games and writes their sampled positions. The writer is flushed but
+	 * not closed.
+	 *
+	 * @param count
+	 *          The number of games to play.
+	 * @param out
+	 *          Where to write the positions.
+	 * @param progress
+	 *          Where to print progress reports, or null for none.
+	 * @throws IOException
+	 *           If the positions could not be written.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting for the games to finish.
+	 */
+	public void run(final int count, final PositionWriter out, final PrintStream progress) throws IOException,
+			InterruptedException {
+		this.games.set(0);
+		this.positions.set(0);
+		this.written = 0;
+		final BlockingQueue<List<LabelledPosition>> queue = new ArrayBlockingQueue<>(this.queueCapacity);
+		final AtomicInteger next = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(this.workers);
+		ExecutorService writer = Executors.newSingleThreadExecutor();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		final long start = System.nanoTime();
+		try {
+			Future<Void> writing = writer.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException, InterruptedException {
+					try {
+						write(queue, out);
+						return null;
+					} catch (IOException | RuntimeException e) {
+						// Stop the workers, which may be waiting for room in the queue
+						executor.shutdownNow();
+						throw e;
+					}
+				}
+			});
+			if (progress != null) {
+				reporter.scheduleAtFixedRate(new Runnable() {
+					@Override
+					public void run() {
+						report(progress, start, queue.size());
+					}
+				}, this.reportNanos, this.reportNanos, TimeUnit.NANOSECONDS);
+			}
+
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < this.workers; ++i) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						Strategy black = factory.get();
+						Strategy white = factory.get();
+						try {
+							while (next.getAndIncrement() < count) {
+								play(black, white, queue);
+							}
+						} finally {
+							Reversi.close(black);
+							Reversi.close(white);
+						}
+						return null;
+					}
+				});
+			}
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) {
+					future.get();
+				}
+				// Give up on queueing the end if the writer has failed
+				boolean ended = false;
+				while (!ended && !writing.isDone()) {
+					ended = queue.offer(END, 100, TimeUnit.MILLISECONDS);
+				}
+				writing.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InterruptedException) {
+					// The writer failed and stopped the workers
+					try {
+						writing.get();
+					} catch (ExecutionException writeFailure) {
+						cause = writeFailure.getCause();
+					}
+				}
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IllegalStateException("a self-play game failed", cause);
+			}
+		} finally {
+			executor.shutdownNow();
+			writer.shutdownNow();
+			reporter.shutdownNow();
+		}
+		if (progress != null) {
+			this.report(progress, start, 0);
+		}
+	}
+
+	/**
+	 * Utility method for playing one game and queueing its samples. Intended only
+	 * for internal use.
+	 */
+	private void play(Strategy black, Strategy white, BlockingQueue<List<LabelledPosition>> queue)
+			throws InterruptedException {
+		Random random = ThreadLocalRandom.current();
+		List<Board> samples = new ArrayList<>();
+		Board board = new Board();
+		while (!board.isComplete()) {
+			if (!board.hasCurrentPossibleSquares()) {
+				board = board.pass();
+				continue;
+			}
+			if (random.nextDouble() < this.sampleRates.get(Phase.of(board))) {
+				samples.add(board);
+			}
+			Square square;
+			if (board.getMoves().size() < this.randomMoves) {
+				square = randomSquare(board, random);
+			} else {
+				square = (board.getCurrentPlayer() == Player.BLACK ? black : white).chooseSquare(board);
+			}
+			board = board.play(square);
+		}
+
+		int difference = Long.bitCount(board.discs(Player.BLACK)) - Long.bitCount(board.discs(Player.WHITE));
+		List<LabelledPosition> batch = new ArrayList<>(samples.size());
+		for (Board sample : samples) {
+			batch.add(LabelledPosition.of(sample, difference));
+		}
+		if (!batch.isEmpty()) {
+			queue.put(batch);
+		}
+		this.games.incrementAndGet();
+		this.positions.addAndGet(batch.size());
+	}
+
+	/**
+	 * Utility method for choosing one of the possible squares at random. Intended
+	 * only for internal use.
+	 */
+	private static Square randomSquare(Board board, Random random) {
+		long moves = board.getPossibleMoves();
+		for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; --skip) {
+			moves &= moves - 1;
+		}
+		return Square.of(Long.numberOfTrailingZeros(moves));
+	}
+
+	/**
+	 * Utility method for writing queued batches until the end is queued. Takes
+	 * every batch waiting in the queue at once, and flushes when the queue runs
+	 * dry. Intended only for internal use.
+	 */
+	private void write(BlockingQueue<List<LabelledPosition>> queue, PositionWriter out) throws IOException,
+			InterruptedException {
+		List<List<LabelledPosition>> batches = new ArrayList<>();
+		while (true) {
+			batches.add(queue.take());
+			queue.drainTo(batches);
+			for (List<LabelledPosition> batch : batches) {
+				if (batch == END) {
+					out.flush();
+					return;
+				}
+				for (LabelledPosition position : batch) {
+					out.write(position);
+				}
+				this.written += batch.size();
+			}
+			batches.clear();
+			if (queue.isEmpty()) {
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Utility method for printing a progress line. Intended only for internal
+	 * use.
+	 */
+	private void report(PrintStream out, long start, int queued) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.printf("%d games, %d positions sampled, %d written, %.0f positions/s, %.1f games/s, %d batches queued\n",
+				this.games.get(), this.positions.get(), this.written, this.written / seconds, this.games.get() / seconds,
+				queued);
+	}
+
+	/**
+	 * @return The number of games finished in the current or last run.
+	 */
+	public long getGameCount() {
+		return this.games.get();
+	}
+
+	/**
+	 * @return The number of positions written in the current or last run.
+	 */
+	public long getPositionCount() {
+		return this.written;
+	}
+
+	/**
+	 * Generates positions from random self-play, or from self-play by the AI
+	 * strategy after 8 random moves.
+	 * <p>
+	 * Arguments: {@code <file> [games] [milliseconds per move] [workers]}, by
+	 * default 100000 games, random play and one worker per processor. With a
+	 * positive time per move, games are played by {@link strategy.Reversi}.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: SelfPlay <file> [games] [milliseconds per move] [workers]");
+			System.exit(2);
+		}
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		final long millis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		SelfPlay selfPlay;
+		if (millis > 0) {
+			selfPlay = new SelfPlay(new Supplier<Strategy>() {
+				@Override
+				public Strategy get() {
+					return new strategy.Reversi(millis, TimeUnit.MILLISECONDS);
+				}
+			}, workers);
+			selfPlay.setRandomMoves(8);
+		} else {
+			selfPlay = new SelfPlay(new Supplier<Strategy>() {
+				@Override
+				public Strategy get() {
+					return new RandomStrategy();
+				}
+			}, workers);
+		}
+		try (PositionWriter out = PositionWriter.open(Paths.get(args[0]))) {
+			selfPlay.run(count, out, System.out);
+		}
+	}
+
+}
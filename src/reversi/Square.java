@@ -1,19 +1,46 @@
 package reversi;
 
-import java.util.Objects;
-
 /**
  * A square on a Reversi board, identified by a row and a column. Rows and
  * columns typically start counting at 0.
+ * <p>
+ * Squares are obtained from {@link #of(int, int)}, which returns the same
+ * instance every time for the squares of an 8x8 board and for {@link #PASS}, so
+ * those may be compared with {@code ==}.
  */
-public class Square {
+public final class Square {
+
+  private static final int SIZE = 8;
+
+  /**
+   * The squares of an 8x8 board indexed by their bitboard index, see
+   * {@link Bitboards}.
+   */
+  private static final Square[] SQUARES = new Square[SIZE * SIZE];
+  static {
+    for (int index = 0; index < SQUARES.length; ++index) {
+      SQUARES[index] = new Square(index / SIZE, index % SIZE);
+    }
+  }
 
   /**
    * A special Square for indicating that no piece was placed.
    */
   public static final Square PASS = new Square(-1, -1);
 
-  private int row, column;
+  private final int row, column;
+  private final int index;
+  private final int hash;
+
+  /**
+   * Low-level constructor. Intended only for internal use.
+   */
+  private Square(int row, int column) {
+    this.row = row;
+    this.column = column;
+    this.index = isOnBoard(row, column) ? Bitboards.index(row, column) : -1;
+    this.hash = 31 * (31 + row) + column;
+  }
 
   /**
    * Identifies a square on the Reversi board via the given row and column.
@@ -22,10 +49,34 @@ public class Square {
    *          The row on the Reversi board.
    * @param column
    *          The column on the Reversi board.
+   * @return The shared instance for a square of an 8x8 board or for
+   *         {@link #PASS}, otherwise a new square that no board contains.
    */
-  public Square(int row, int column) {
-    this.row = row;
-    this.column = column;
+  public static Square of(int row, int column) {
+    if (isOnBoard(row, column)) {
+      return SQUARES[Bitboards.index(row, column)];
+    }
+    if (row == PASS.row && column == PASS.column) {
+      return PASS;
+    }
+    return new Square(row, column);
+  }
+
+  /**
+   * @param index
+   *          A bitboard index, from 0 to 63.
+   * @return The shared instance for the square with the given index.
+   */
+  public static Square of(int index) {
+    return SQUARES[index];
+  }
+
+  /**
+   * Utility method for checking coordinates against an 8x8 board. Intended only
+   * for internal use.
+   */
+  private static boolean isOnBoard(int row, int column) {
+    return row >= 0 && row < SIZE && column >= 0 && column < SIZE;
   }
 
   /**
@@ -42,13 +93,24 @@ public class Square {
     return this.column;
   }
 
+  /**
+   * @return The bitboard index of this square, see {@link Bitboards}, or -1 for
+   *         {@link #PASS} and squares that are not on an 8x8 board.
+   */
+  public int getIndex() {
+    return this.index;
+  }
+
   @Override
   public int hashCode() {
-    return Objects.hash(this.row, this.column);
+    return this.hash;
   }
 
   @Override
   public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
     if (obj instanceof Square) {
       Square that = (Square) obj;
       return this.row == that.row && this.column == that.column;
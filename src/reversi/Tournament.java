@@ -0,0 +1,246 @@
+package reversi;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+
+/**
+ * A round-robin tournament over Reversi strategies, with games played
+ * concurrently on a pool of worker threads. Every game gets fresh strategy
+ * instances from each entrant's factory, so strategies that keep state between
+ * moves never share it across games. All games choose their moves on one
+ * shared executor from {@link MoveExecutors#preferred()}, or from
+ * {@link MoveExecutors#shared()} when charging CPU time, which virtual threads
+ * cannot measure. Every move is recorded in the tournament's
+ * {@link MoveMetrics}.
+ */
+public class Tournament {
+
+	private final List<String> names = new ArrayList<>();
+	private final List<Supplier<? extends Strategy>> factories = new ArrayList<>();
+	private final long timeout;
+	private final TimeUnit timeoutUnit;
+	private final int workers;
+	private boolean cpuTime;
+	// The time bank of each player in every game, or -1 for the timeout per move
+	private long bank = -1;
+	private long increment;
+	private TimeUnit bankUnit;
+
+	// Results per entrant, indexed like the names
+	private AtomicIntegerArray wins, losses, draws, timeouts;
+	private ExecutorService moveExecutor;
+	private MoveMetrics metrics;
+
+	/**
+	 * Creates a tournament with no entrants.
+	 *
+	 * @param timeout
+	 *          The maximum time allowed to a strategy for choosing a square.
+	 * @param timeoutUnit
+	 *          The unit of the timeout
+	 * @param workers
+	 *          The number of games to play at once.
+	 */
+	public Tournament(long timeout, TimeUnit timeoutUnit, int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("at least one worker is needed, not " + workers);
+		}
+		this.timeout = timeout;
+		this.timeoutUnit = timeoutUnit;
+		this.workers = workers;
+	}
+
+	/**
+	 * Charges strategies for the CPU time of the thread choosing their squares
+	 * rather than for wall-clock time, so that results do not depend on how many
+	 * games share the host. See {@link Reversi#setCpuTime(boolean)}.
+	 */
+	public void setCpuTime(boolean cpuTime) {
+		this.cpuTime = cpuTime;
+	}
+
+	/**
+	 * Gives each player of every game a bank of time for the game instead of the
+	 * timeout per move. See {@link Reversi#setTimeBank(long, long, TimeUnit)}.
+	 */
+	public void setTimeBank(long bank, long increment, TimeUnit unit) {
+		this.bank = bank;
+		this.increment = increment;
+		this.bankUnit = unit;
+	}
+
+	/**
+	 * Enters a strategy into the tournament.
+	 *
+	 * @param name
+	 *          The name to report the strategy's results under.
+	 * @param factory
+	 *          Creates a new instance of the strategy for each game. Instances
+	 *          that are {@link AutoCloseable} are closed when their game ends.
+	 */
+	public void add(String name, Supplier<? extends Strategy> factory) {
+		this.names.add(name);
+		this.factories.add(factory);
+	}
+
+	/**
+	 * Runs N rounds, pairing each strategy with each other strategy. There will
+	 * actually be 2N games per pairing since each strategy gets to be both black
+	 * and white. Any earlier results are discarded.
+	 *
+	 * @param rounds
+	 *          The number of rounds N.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting for the games to finish.
+	 * @throws IllegalStateException
+	 *           If a game fails, for example on an invalid square. The games
+	 *           still running or waiting to run are cancelled.
+	 */
+	public void run(int rounds) throws InterruptedException {
+		int size = this.names.size();
+		this.wins = new AtomicIntegerArray(size);
+		this.losses = new AtomicIntegerArray(size);
+		this.draws = new AtomicIntegerArray(size);
+		this.timeouts = new AtomicIntegerArray(size);
+		this.metrics = new MoveMetrics();
+
+		List<Callable<Void>> games = new ArrayList<>();
+		for (int round = 0; round < rounds; ++round) {
+			for (int i = 0; i < size; ++i) {
+				for (int j = i + 1; j < size; ++j) {
+					games.add(this.game(i, j));
+					games.add(this.game(j, i));
+				}
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.workers);
+		this.moveExecutor = this.cpuTime ? MoveExecutors.shared() : MoveExecutors.preferred();
+		// Take the games as they finish, so that the first failure stops the run
+		CompletionService<Void> completed = new ExecutorCompletionService<>(executor);
+		List<Future<Void>> futures = new ArrayList<>();
+		try {
+			for (Callable<Void> game : games) {
+				futures.add(completed.submit(game));
+			}
+			for (int i = 0; i < futures.size(); ++i) {
+				try {
+					completed.take().get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("a tournament game failed", e.getCause());
+				}
+			}
+		} finally {
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+			this.moveExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Utility method for creating a single game between two entrants. Intended
+	 * only for internal use.
+	 */
+	private Callable<Void> game(final int black, final int white) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Strategy blackStrategy = factories.get(black).get();
+				Strategy whiteStrategy = factories.get(white).get();
+				Reversi reversi = new Reversi(blackStrategy, whiteStrategy, timeout, timeoutUnit, moveExecutor);
+				reversi.setMetrics(metrics, names.get(black), names.get(white));
+				reversi.setCpuTime(cpuTime);
+				if (bank >= 0) {
+					reversi.setTimeBank(bank, increment, bankUnit);
+				}
+				Strategy winner;
+				try {
+					winner = reversi.getWinner(reversi.play(new Board()));
+				} catch (StrategyTimedOutException e) {
+					// If one of the strategies timed out, the opponent is considered the winner
+					winner = e.getOpponentStrategy();
+					timeouts.incrementAndGet(winner == blackStrategy ? white : black);
+				} finally {
+					Reversi.close(blackStrategy);
+					Reversi.close(whiteStrategy);
+				}
+				if (winner == null) {
+					draws.incrementAndGet(black);
+					draws.incrementAndGet(white);
+				} else {
+					wins.incrementAndGet(winner == blackStrategy ? black : white);
+					losses.incrementAndGet(winner == blackStrategy ? white : black);
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * @return The per-move measurements of the most recent run.
+	 */
+	public MoveMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @return The number of games won by the entrant with the given name.
+	 */
+	public int getWins(String name) {
+		return this.wins.get(this.names.indexOf(name));
+	}
+
+	/**
+	 * @return The number of games lost by the entrant with the given name,
+	 *         including those lost by timing out.
+	 */
+	public int getLosses(String name) {
+		return this.losses.get(this.names.indexOf(name));
+	}
+
+	/**
+	 * @return The number of games drawn by the entrant with the given name.
+	 */
+	public int getDraws(String name) {
+		return this.draws.get(this.names.indexOf(name));
+	}
+
+	/**
+	 * Prints the entrants ranked by number of wins, along with their losses,
+	 * draws and timeouts.
+	 */
+	public void report(PrintStream out) {
+		List<Integer> entrants = new ArrayList<>();
+		for (int i = 0; i < this.names.size(); ++i) {
+			entrants.add(i);
+		}
+		Ordering<Integer> byWins = new Ordering<Integer>() {
+			@Override
+			public int compare(Integer left, Integer right) {
+				return Ints.compare(wins.get(left), wins.get(right));
+			}
+		}.reverse();
+		out.printf("%4s\t%4s\t%4s\t%4s\t%s\n", "won", "lost", "drew", "t/o", "strategy");
+		for (int i : byWins.sortedCopy(entrants)) {
+			out.printf("%4d\t%4d\t%4d\t%4d\t%s\n", this.wins.get(i), this.losses.get(i), this.draws.get(i),
+					this.timeouts.get(i), this.names.get(i));
+		}
+	}
+
+}
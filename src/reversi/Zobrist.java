@@ -0,0 +1,75 @@
+package reversi;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys for Reversi positions. The key of a position is the exclusive or
+ * of one random number per occupied square and owner, plus {@link #WHITE_TO_MOVE}
+ * when white is the player to move. Playing a piece changes the key by a few
+ * exclusive ors, so boards can keep their key up to date incrementally.
+ */
+public final class Zobrist {
+
+	/**
+	 * The key component for white being the player to move.
+	 */
+	public static final long WHITE_TO_MOVE;
+
+	private static final long[] BLACK = new long[Bitboards.SQUARES];
+	private static final long[] WHITE = new long[Bitboards.SQUARES];
+	private static final long[] FLIP = new long[Bitboards.SQUARES];
+	static {
+		// A fixed seed keeps keys stable between runs
+		Random random = new Random(0x5EED_2018_1025L);
+		for (int index = 0; index < Bitboards.SQUARES; ++index) {
+			BLACK[index] = random.nextLong();
+			WHITE[index] = random.nextLong();
+			FLIP[index] = BLACK[index] ^ WHITE[index];
+		}
+		WHITE_TO_MOVE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * @return The key component for the given player owning the square with the
+	 *         given bitboard index.
+	 */
+	public static long disc(Player owner, int index) {
+		return owner == Player.BLACK ? BLACK[index] : WHITE[index];
+	}
+
+	/**
+	 * @return The change in key when the given squares change owner.
+	 */
+	public static long flips(long squares) {
+		long key = 0;
+		for (long rest = squares; rest != 0; rest &= rest - 1) {
+			key ^= FLIP[Long.numberOfTrailingZeros(rest)];
+		}
+		return key;
+	}
+
+	/**
+	 * @return The key of the given discs, not including the player to move.
+	 */
+	public static long discs(long black, long white) {
+		long key = 0;
+		for (long rest = black; rest != 0; rest &= rest - 1) {
+			key ^= BLACK[Long.numberOfTrailingZeros(rest)];
+		}
+		for (long rest = white; rest != 0; rest &= rest - 1) {
+			key ^= WHITE[Long.numberOfTrailingZeros(rest)];
+		}
+		return key;
+	}
+
+	/**
+	 * @return The key component for the given player to move.
+	 */
+	public static long toMove(Player player) {
+		return player == Player.WHITE ? WHITE_TO_MOVE : 0;
+	}
+
+}
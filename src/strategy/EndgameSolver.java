@@ -0,0 +1,379 @@
+package strategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import reversi.Bitboards;
+import reversi.Board;
+import reversi.SearchBoard;
+import reversi.Square;
+
+/**
+ * Solves Reversi endgames exactly. A solve first finds whether the player to
+ * move wins, loses or draws, with a null window around zero, and then finds
+ * the exact final disc difference within the half of the score range that the
+ * first result allows.
+ * <p>
+ * The empty squares are kept in a linked list, and positions are passed down
+ * as two bitboards, so the search does not allocate. Far from the end, moves
+ * are searched fastest-first, those that leave the opponent the fewest replies
+ * first. Close to the end, the list is walked directly, playing first into
+ * quadrants with an odd number of empty squares (parity ordering).
+ */
+public class EndgameSolver {
+
+  /**
+   * Returned by {@link #solve(Board, long)} if it ran out of time before knowing
+   * whether the game is won, lost or drawn.
+   */
+  public static final int NO_MOVE = -1;
+
+  private static final int INFINITY = 65;
+
+  /**
+   * Above this many empty squares, moves are ordered fastest-first; at or below
+   * it, by parity only.
+   */
+  private static final int FASTEST_FIRST_EMPTIES = 7;
+
+  /**
+   * How many nodes are searched between checks of the clock.
+   */
+  private static final int CHECK_INTERVAL = 4096;
+
+  /**
+   * The head of the empty square list, one past the last square.
+   */
+  private static final int HEAD = Bitboards.SQUARES;
+
+  /**
+   * The order in which squares are kept in the empty square list: corners
+   * first, the squares diagonally next to corners last.
+   */
+  private static final int[] SQUARE_ORDER;
+
+  /**
+   * For each square, a bit identifying its quadrant of the board.
+   */
+  private static final int[] QUADRANT = new int[Bitboards.SQUARES];
+
+  static {
+    int[] priority = { 0, 4, 1, 2, 2, 1, 4, 0,
+                       4, 5, 3, 3, 3, 3, 5, 4,
+                       1, 3, 2, 2, 2, 2, 3, 1,
+                       2, 3, 2, 9, 9, 2, 3, 2,
+                       2, 3, 2, 9, 9, 2, 3, 2,
+                       1, 3, 2, 2, 2, 2, 3, 1,
+                       4, 5, 3, 3, 3, 3, 5, 4,
+                       0, 4, 1, 2, 2, 1, 4, 0 };
+    List<Integer> squares = new ArrayList<>();
+    for (int level = 0; level <= 9; level++) {
+      for (int index = 0; index < Bitboards.SQUARES; index++) {
+        if (priority[index] == level) {
+          squares.add(index);
+        }
+      }
+    }
+    SQUARE_ORDER = new int[squares.size()];
+    for (int i = 0; i < SQUARE_ORDER.length; i++) {
+      SQUARE_ORDER[i] = squares.get(i);
+    }
+    for (int index = 0; index < Bitboards.SQUARES; index++) {
+      int row = index / 8, column = index % 8;
+      QUADRANT[index] = 1 << ((row < 4 ? 0 : 2) + (column < 4 ? 0 : 1));
+    }
+  }
+
+  // The doubly linked list of empty squares
+  private final int[] next = new int[HEAD + 1];
+  private final int[] previous = new int[HEAD + 1];
+  // One bit per quadrant, set if the quadrant has an odd number of empty squares
+  private int parity;
+
+  // Buffers for fastest-first ordering, one row per number of empty squares
+  private final int[][] orderMoves = new int[HEAD + 1][HEAD];
+  private final long[][] orderFlips = new long[HEAD + 1][HEAD];
+  private final int[][] orderKeys = new int[HEAD + 1][HEAD];
+
+  private long deadline;
+  private boolean aborted;
+  private long nodes;
+  private long elapsed;
+  private int rootMove;
+  private int score;
+  private boolean exact;
+
+  /**
+   * Solves the given board, unless the deadline passes first.
+   *
+   * @param board
+   *          A board where the current player has a possible move.
+   * @param deadline
+   *          The {@link System#nanoTime()} by which to give up.
+   * @return The bitboard index of the best move: the one with the best exact
+   *         score if {@link #isExact()}, otherwise one with the best win, loss
+   *         or draw result. {@link #NO_MOVE} if not even that was found in time.
+   */
+  public int solve(Board board, long deadline) {
+    long start = System.nanoTime();
+    SearchBoard search = new SearchBoard(board);
+    long player = search.getPlayerDiscs();
+    long opponent = search.getOpponentDiscs();
+
+    this.deadline = deadline;
+    aborted = false;
+    nodes = 0;
+    exact = false;
+    initialize(~(player | opponent));
+
+    int move = NO_MOVE;
+    int result = root(player, opponent, -1, 1);
+    if (!aborted) {
+      move = rootMove;
+      score = result;
+      if (result == 0) {
+        exact = true;
+      } else {
+        result = result > 0 ? root(player, opponent, 0, INFINITY) : root(player, opponent, -INFINITY, 0);
+        if (!aborted) {
+          move = rootMove;
+          score = result;
+          exact = true;
+        }
+      }
+    }
+
+    elapsed = System.nanoTime() - start;
+    return move;
+  }
+
+  /**
+   * @return The score of the most recent solve: the final disc difference for
+   *         the player to move if {@link #isExact()}, otherwise only its sign.
+   */
+  public int getScore() {
+    return score;
+  }
+
+  /**
+   * @return True if the most recent solve found the exact final disc difference.
+   */
+  public boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * @return The number of positions visited by the most recent solve.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @return The number of positions visited per second by the most recent solve.
+   */
+  public double getNodesPerSecond() {
+    return elapsed == 0 ? 0 : nodes * 1e9 / elapsed;
+  }
+
+  /**
+   * Utility method for building the empty square list and parity of a position.
+   * Intended only for internal use.
+   */
+  private void initialize(long empty) {
+    int last = HEAD;
+    parity = 0;
+    for (int index : SQUARE_ORDER) {
+      if ((empty & 1L << index) != 0) {
+        next[last] = index;
+        previous[index] = last;
+        last = index;
+        parity ^= QUADRANT[index];
+      }
+    }
+    next[last] = HEAD;
+    previous[HEAD] = last;
+  }
+
+  /**
+   * Searches every move at the root, recording the best one in
+   * {@link #rootMove}.
+   */
+  private int root(long player, long opponent, int alpha, int beta) {
+    int empties = Long.bitCount(~(player | opponent));
+    int count = order(player, opponent, empties);
+    int[] moves = orderMoves[empties];
+    long[] flips = orderFlips[empties];
+    int best = -INFINITY;
+
+    for (int i = 0; i < count; i++) {
+      int square = moves[i];
+      int value = -play(player, opponent, square, flips[i], -beta, -Math.max(alpha, best), empties);
+      if (aborted) return best;
+      if (value > best) {
+        best = value;
+        rootMove = square;
+        if (best >= beta) break;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Utility method for searching the position after a move, keeping the empty
+   * square list and parity up to date.
+   */
+  private int play(long player, long opponent, int square, long flips, int alpha, int beta, int empties) {
+    next[previous[square]] = next[square];
+    previous[next[square]] = previous[square];
+    parity ^= QUADRANT[square];
+
+    int value = search(opponent & ~flips, player | flips | 1L << square, alpha, beta, empties - 1, false);
+
+    parity ^= QUADRANT[square];
+    previous[next[square]] = square;
+    next[previous[square]] = square;
+    return value;
+  }
+
+  /**
+   * Alpha-beta search to the end of the game in negamax form.
+   *
+   * @return The final disc difference for the player to move, or a bound on it.
+   */
+  private int search(long player, long opponent, int alpha, int beta, int empties, boolean passed) {
+    if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > deadline)
+      aborted = true;
+    if (aborted)
+      return 0;
+
+    if (empties == 0)
+      return Long.bitCount(player) - Long.bitCount(opponent);
+
+    if (empties > FASTEST_FIRST_EMPTIES)
+      return searchFastestFirst(player, opponent, alpha, beta, empties, passed);
+
+    int best = -INFINITY;
+    // Walk the empty squares twice: first those in odd quadrants, then the rest
+    for (int odd = 1; odd >= 0; odd--) {
+      for (int square = next[HEAD]; square != HEAD; square = next[square]) {
+        if (((parity & QUADRANT[square]) != 0) != (odd == 1)) continue;
+        long flips = Bitboards.flips(square, player, opponent);
+        if (flips == 0) continue;
+
+        int value = -play(player, opponent, square, flips, -beta, -Math.max(alpha, best), empties);
+        if (value > best) {
+          best = value;
+          if (best >= beta) return best;
+        }
+      }
+    }
+
+    if (best == -INFINITY)
+      return pass(player, opponent, alpha, beta, empties, passed);
+    return best;
+  }
+
+  /**
+   * Like {@link #search}, but orders the moves fastest-first.
+   */
+  private int searchFastestFirst(long player, long opponent, int alpha, int beta, int empties, boolean passed) {
+    int count = order(player, opponent, empties);
+    if (count == 0)
+      return pass(player, opponent, alpha, beta, empties, passed);
+
+    int[] moves = orderMoves[empties];
+    long[] flips = orderFlips[empties];
+    int best = -INFINITY;
+    for (int i = 0; i < count; i++) {
+      int value = -play(player, opponent, moves[i], flips[i], -beta, -Math.max(alpha, best), empties);
+      if (value > best) {
+        best = value;
+        if (best >= beta) return best;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Utility method for handling a position where the player to move cannot
+   * play: the game either ends or continues with the opponent.
+   */
+  private int pass(long player, long opponent, int alpha, int beta, int empties, boolean passed) {
+    if (passed)
+      return Long.bitCount(player) - Long.bitCount(opponent);
+    return -search(opponent, player, -beta, -alpha, empties, true);
+  }
+
+  /**
+   * Utility method for filling the ordering buffers for the given number of
+   * empty squares with the moves of a position, fewest opponent replies first
+   * and then odd quadrants first.
+   *
+   * @return The number of moves.
+   */
+  private int order(long player, long opponent, int empties) {
+    int[] moves = orderMoves[empties];
+    long[] flips = orderFlips[empties];
+    int[] keys = orderKeys[empties];
+    int count = 0;
+
+    for (long rest = Bitboards.moves(player, opponent); rest != 0; rest &= rest - 1) {
+      int square = Long.numberOfTrailingZeros(rest);
+      long flipped = Bitboards.flips(square, player, opponent);
+      long after = player | flipped | 1L << square;
+      int key = 2 * Long.bitCount(Bitboards.moves(opponent & ~flipped, after))
+          + ((parity & QUADRANT[square]) != 0 ? 0 : 1);
+
+      // Insertion sort, which is fastest for the handful of moves there are
+      int i = count++;
+      while (i > 0 && keys[i - 1] > key) {
+        moves[i] = moves[i - 1];
+        flips[i] = flips[i - 1];
+        keys[i] = keys[i - 1];
+        i--;
+      }
+      moves[i] = square;
+      flips[i] = flipped;
+      keys[i] = key;
+    }
+    return count;
+  }
+
+  /**
+   * Solves seeded random positions with a given number of empty squares and
+   * prints the results and speed.
+   * <p>
+   * Arguments: {@code [empties] [positions]}, by default 16 empty squares and 10
+   * positions.
+   */
+  public static void main(String[] args) {
+    int empties = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Random random = new Random(486);
+    EndgameSolver solver = new EndgameSolver();
+    long nodes = 0, elapsed = 0;
+    for (int solved = 0; solved < count;) {
+      Board board = new Board();
+      while (!board.isComplete() && board.size() * board.size() - board.getSquareOwners().size() > empties) {
+        if (!board.hasCurrentPossibleSquares()) {
+          board = board.pass();
+        } else {
+          List<Square> squares = new ArrayList<>(board.getCurrentPossibleSquares());
+          board = board.play(squares.get(random.nextInt(squares.size())));
+        }
+      }
+      if (!board.hasCurrentPossibleSquares()) continue;
+
+      int move = solver.solve(board, Long.MAX_VALUE);
+      System.out.printf("%s\tmove %d\tscore %+d\t%d nodes\t%.0f nodes/s\n", board.getCurrentPlayer(), move,
+          solver.getScore(), solver.getNodes(), solver.getNodesPerSecond());
+      nodes += solver.getNodes();
+      elapsed += solver.elapsed;
+      solved++;
+    }
+    System.out.printf("total\t%d nodes\t%d ms\t%.0f nodes/s\n", nodes, elapsed / 1000000, nodes * 1e9 / elapsed);
+  }
+}
@@ -0,0 +1,517 @@
+package strategy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import reversi.BestMove;
+import reversi.Bitboards;
+import reversi.Board;
+import reversi.DeadlineStrategy;
+import reversi.Player;
+import reversi.ReportingStrategy;
+import reversi.SearchBoard;
+import reversi.Square;
+
+/**
+ * A Monte Carlo tree search strategy (UCT). Each iteration walks down the tree
+ * by the UCB1 rule, grows it by one position, and scores that position with a
+ * random playout to the end of the game. Playouts run on bitboards with a
+ * thread-local random number generator, and allocate nothing.
+ * <p>
+ * With more than one thread, all threads grow the same tree. A thread counts
+ * its visit to every position on its way down before the playout is done,
+ * which scores the visit as a loss until the result arrives (virtual loss), so
+ * that the other threads spread out over other lines. The tree is kept between
+ * moves, and the part below the moves actually played is reused. It stops
+ * growing at a maximum number of positions, after which the playouts carry on
+ * from its leaves.
+ * <p>
+ * The strategy must be closed once it has played its last move, to stop the
+ * helper threads and let go of the tree.
+ */
+public class MonteCarloStrategy implements ReportingStrategy, DeadlineStrategy, AutoCloseable {
+
+  /**
+   * The part of the timeout kept back for scheduling and garbage collection
+   * pauses: whichever is larger of this many milliseconds or 1/20 of the timeout.
+   */
+  private static final long SAFETY_MARGIN = 50;
+
+  /**
+   * The time in milliseconds left before a deadline to choose the move and
+   * return it, which takes only a pass over the root's children.
+   */
+  private static final long RETURN_MARGIN = 2;
+
+  /**
+   * The weight of exploration against the win rate in the UCB1 rule.
+   */
+  private static final double EXPLORATION = 0.7;
+
+  /**
+   * How many iterations the main thread runs between publishing its best move.
+   */
+  private static final int PUBLISH_INTERVAL = 4096;
+
+  /**
+   * How many plies below the last root the current position is looked for:
+   * our move, and the opponent's reply or pass, and a pass of our own.
+   */
+  private static final int REUSE_PLIES = 3;
+
+  /**
+   * The default maximum number of positions in the tree, about 60 MB.
+   */
+  public static final int DEFAULT_MAX_NODES = 1000000;
+
+  /**
+   * A position in the tree. Results are counted in half points for the player
+   * who moved into the position: 2 for a win, 1 for a draw.
+   */
+  static final class Node {
+    static final AtomicIntegerFieldUpdater<Node> VISITS = AtomicIntegerFieldUpdater.newUpdater(Node.class,
+        "visits");
+    static final AtomicLongFieldUpdater<Node> POINTS = AtomicLongFieldUpdater.newUpdater(Node.class, "points");
+    static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN = AtomicReferenceFieldUpdater.newUpdater(
+        Node.class, Node[].class, "children");
+    static final Node[] LEAF = new Node[0];
+
+    final long player, opponent;
+    final int move;
+    volatile int visits;
+    volatile long points;
+    // Null until expanded, and empty once the game is over
+    volatile Node[] children;
+
+    /**
+     * @param move
+     *          The square index played to reach the position, or
+     *          {@link SearchBoard#PASS}.
+     */
+    Node(long player, long opponent, int move) {
+      this.player = player;
+      this.opponent = opponent;
+      this.move = move;
+    }
+  }
+
+  private final long timeoutNanos;
+  private final int threads;
+  private int maxNodes = DEFAULT_MAX_NODES;
+  private ExecutorService helpers;
+  private boolean closed;
+
+  private Node root;
+  private final AtomicInteger nodeCount = new AtomicInteger();
+  private volatile boolean stopped;
+
+  private long playouts;
+  private long reused;
+  private long elapsed;
+  private double winRate;
+
+  /**
+   * Creates a single-threaded strategy for games that allow one second per move.
+   */
+  public MonteCarloStrategy() {
+    this(1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Creates a single-threaded strategy for games with the given timeout.
+   *
+   * @param timeout
+   *          The maximum time the game allows for choosing a square.
+   * @param timeoutUnit
+   *          The unit of the timeout.
+   */
+  public MonteCarloStrategy(long timeout, TimeUnit timeoutUnit) {
+    this(timeout, timeoutUnit, 1);
+  }
+
+  /**
+   * Creates a strategy for games with the given timeout.
+   *
+   * @param timeout
+   *          The maximum time the game allows for choosing a square.
+   * @param timeoutUnit
+   *          The unit of the timeout.
+   * @param threads
+   *          The number of threads to grow the tree with.
+   */
+  public MonteCarloStrategy(long timeout, TimeUnit timeoutUnit, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one search thread is needed, not " + threads);
+    }
+    this.timeoutNanos = timeoutUnit.toNanos(timeout);
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the maximum number of positions in the tree. Each takes about 60
+   * bytes, counting its place in its parent's children.
+   */
+  public void setMaxNodes(int maxNodes) {
+    this.maxNodes = maxNodes;
+  }
+
+  @Override
+  public Square chooseSquare(Board board) {
+    long start = System.nanoTime();
+    long margin = Math.max(TimeUnit.MILLISECONDS.toNanos(SAFETY_MARGIN), timeoutNanos / 20);
+    return search(board, start, start + Math.max(0, timeoutNanos - margin), null);
+  }
+
+  /**
+   * Like {@link #chooseSquare(Board)}, but searches until just before the
+   * deadline, and publishes the most visited move as the search goes.
+   */
+  @Override
+  public Square chooseSquare(Board board, long deadline, BestMove bestMove) {
+    return search(board, System.nanoTime(), deadline - TimeUnit.MILLISECONDS.toNanos(RETURN_MARGIN), bestMove);
+  }
+
+  /**
+   * @return The number of playouts, the playouts per second, the size of the
+   *         tree, the visits reused from the previous move and the win rate of
+   *         the chosen move, for the most recent search.
+   */
+  @Override
+  public Map<String, Number> getMoveCounters() {
+    Map<String, Number> counters = new LinkedHashMap<>();
+    counters.put("playouts", playouts);
+    counters.put("playoutsPerSecond", getPlayoutsPerSecond());
+    counters.put("treeNodes", nodeCount.get());
+    counters.put("reusedVisits", reused);
+    counters.put("winRate", winRate);
+    return counters;
+  }
+
+  /**
+   * @return The number of playouts per second in the most recent search.
+   */
+  public double getPlayoutsPerSecond() {
+    return elapsed == 0 ? 0 : playouts * 1e9 / elapsed;
+  }
+
+  /**
+   * Utility method for growing the tree on every thread until the deadline, and
+   * choosing the most visited move. Intended only for internal use.
+   */
+  private Square search(Board board, long start, final long deadline, BestMove bestMove) {
+    Player player = board.getCurrentPlayer();
+    final Node tree = reuse(board.getDiscs(player), board.getDiscs(player.opponent()));
+    root = tree;
+    reused = tree.visits;
+    if (tree.children == null) {
+      expand(tree);
+    }
+    stopped = false;
+    playouts = 0;
+
+    // A forced move needs no search
+    if (tree.children.length > 1) {
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int id = 1; id < threads; id++) {
+        futures.add(helpers().submit(new Callable<Long>() {
+          @Override
+          public Long call() {
+            return grow(tree, deadline, null);
+          }
+        }));
+      }
+      playouts = grow(tree, deadline, bestMove);
+      stopped = true;
+      for (Future<Long> future : futures) {
+        try {
+          playouts += future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("search thread failed", e.getCause());
+        }
+      }
+    }
+
+    Node best = mostVisited(tree);
+    winRate = best.visits == 0 ? 0 : best.points / (2.0 * best.visits);
+    elapsed = System.nanoTime() - start;
+    return Square.of(best.move);
+  }
+
+  /**
+   * Utility method for running iterations on one thread until the deadline or
+   * until another thread stops the search. Intended only for internal use.
+   *
+   * @param tree
+   *          The root of the tree being searched.
+   * @param bestMove
+   *          Where to publish the most visited move now and then, or null.
+   * @return The number of playouts.
+   */
+  private long grow(Node tree, long deadline, BestMove bestMove) {
+    Random random = ThreadLocalRandom.current();
+    Node[] path = new Node[SearchBoard.MAX_PLIES + 1];
+    long count = 0;
+    while (!stopped && System.nanoTime() < deadline) {
+      iterate(tree, path, random);
+      if (++count % PUBLISH_INTERVAL == 0 && bestMove != null) {
+        bestMove.publish(Square.of(mostVisited(tree).move));
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Utility method for selecting a path down the tree, expanding its last
+   * position if it has been visited before, and backing up the result of a
+   * playout from there. Intended only for internal use.
+   */
+  private void iterate(Node tree, Node[] path, Random random) {
+    Node node = tree;
+    int depth = 0;
+    path[depth++] = node;
+    Node.VISITS.incrementAndGet(node);
+    while (true) {
+      Node[] children = node.children;
+      if (children == null) {
+        // Play out from new positions before spending memory on them
+        if (node.visits < 2 || nodeCount.get() >= maxNodes) {
+          break;
+        }
+        children = expand(node);
+      }
+      if (children.length == 0) {
+        break;
+      }
+      node = select(node, children);
+      path[depth++] = node;
+    }
+
+    // The playout scores the position for the player to move in it, so each
+    // position up the path gets the result for the player who moved into it
+    int result = playout(node.player, node.opponent, random);
+    while (depth > 0) {
+      result = 2 - result;
+      Node.POINTS.addAndGet(path[--depth], result);
+    }
+  }
+
+  /**
+   * Utility method for choosing the child with the highest upper confidence
+   * bound, and counting a visit to it straight away. Intended only for internal
+   * use.
+   */
+  private static Node select(Node parent, Node[] children) {
+    double logVisits = Math.log(Math.max(1, parent.visits));
+    Node best = children[0];
+    double bestBound = Double.NEGATIVE_INFINITY;
+    for (Node child : children) {
+      int visits = child.visits;
+      if (visits == 0) {
+        best = child;
+        break;
+      }
+      double bound = child.points / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+      if (bound > bestBound) {
+        bestBound = bound;
+        best = child;
+      }
+    }
+    Node.VISITS.incrementAndGet(best);
+    return best;
+  }
+
+  /**
+   * Utility method for adding the children of a position, unless another thread
+   * got there first. A player without moves gets a single pass child, and a
+   * finished game gets none. Intended only for internal use.
+   */
+  private Node[] expand(Node node) {
+    long player = node.player;
+    long opponent = node.opponent;
+    long moves = Bitboards.moves(player, opponent);
+    Node[] children;
+    if (moves != 0) {
+      children = new Node[Long.bitCount(moves)];
+      for (int i = 0; moves != 0; moves &= moves - 1, i++) {
+        int index = Long.numberOfTrailingZeros(moves);
+        long flips = Bitboards.flips(index, player, opponent);
+        children[i] = new Node(opponent & ~flips, player | flips | 1L << index, index);
+      }
+    } else if (Bitboards.moves(opponent, player) != 0) {
+      children = new Node[] { new Node(opponent, player, SearchBoard.PASS) };
+    } else {
+      children = Node.LEAF;
+    }
+    if (Node.CHILDREN.compareAndSet(node, null, children)) {
+      nodeCount.addAndGet(children.length);
+      return children;
+    }
+    return node.children;
+  }
+
+  /**
+   * Utility method for playing random moves to the end of the game.
+   *
+   * @return 2 if the player to move wins, 1 for a draw and 0 for a loss.
+   */
+  static int playout(long player, long opponent, Random random) {
+    boolean passed = false;
+    boolean swapped = false;
+    while (true) {
+      long moves = Bitboards.moves(player, opponent);
+      if (moves == 0) {
+        if (passed) {
+          break;
+        }
+        passed = true;
+      } else {
+        passed = false;
+        for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--) {
+          moves &= moves - 1;
+        }
+        int index = Long.numberOfTrailingZeros(moves);
+        long flips = Bitboards.flips(index, player, opponent);
+        player |= flips | 1L << index;
+        opponent &= ~flips;
+      }
+      long next = opponent;
+      opponent = player;
+      player = next;
+      swapped = !swapped;
+    }
+    int difference = Long.bitCount(player) - Long.bitCount(opponent);
+    if (swapped) {
+      difference = -difference;
+    }
+    return difference > 0 ? 2 : difference == 0 ? 1 : 0;
+  }
+
+  /**
+   * Utility method for finding the current position a few plies below the last
+   * root, so its subtree can be searched further, or else starting a new tree.
+   * Intended only for internal use.
+   */
+  private Node reuse(long player, long opponent) {
+    Node found = root == null ? null : find(root, player, opponent, REUSE_PLIES);
+    if (found == null) {
+      found = new Node(player, opponent, SearchBoard.PASS);
+      nodeCount.set(1);
+    } else {
+      nodeCount.set(count(found));
+    }
+    return found;
+  }
+
+  /**
+   * Utility method for searching the tree to the given depth for a position.
+   * Intended only for internal use.
+   */
+  private static Node find(Node node, long player, long opponent, int plies) {
+    if (node.player == player && node.opponent == opponent) {
+      return node;
+    }
+    Node[] children = node.children;
+    if (plies == 0 || children == null) {
+      return null;
+    }
+    for (Node child : children) {
+      Node found = find(child, player, opponent, plies - 1);
+      if (found != null) {
+        return found;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Utility method for counting the positions in a subtree. Intended only for
+   * internal use.
+   */
+  private static int count(Node node) {
+    int count = 0;
+    Deque<Node> pending = new ArrayDeque<>();
+    pending.push(node);
+    while (!pending.isEmpty()) {
+      Node next = pending.pop();
+      ++count;
+      Node[] children = next.children;
+      if (children != null) {
+        for (Node child : children) {
+          pending.push(child);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Utility method for finding the most visited child of a position, which is
+   * the most reliable choice of move. Intended only for internal use.
+   */
+  private static Node mostVisited(Node node) {
+    Node best = null;
+    for (Node child : node.children) {
+      if (best == null || child.visits > best.visits) {
+        best = child;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Stops the helper threads and lets go of the tree. A search that is still
+   * running stops early, and the strategy must not be used afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    stopped = true;
+    root = null;
+    if (helpers != null) {
+      helpers.shutdown();
+    }
+  }
+
+  /**
+   * Utility method for lazily starting the helper threads. They are daemon
+   * threads, so an unused strategy does not keep the program running.
+   *
+   * @throws IllegalStateException
+   *           If the strategy has been closed.
+   */
+  private synchronized ExecutorService helpers() {
+    if (closed) {
+      throw new IllegalStateException("the strategy has been closed");
+    }
+    if (helpers == null) {
+      helpers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "monte-carlo-helper");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return helpers;
+  }
+}
@@ -0,0 +1,131 @@
+package strategy;
+
+import reversi.Bitboards;
+import reversi.SearchBoard;
+
+/**
+ * Orders the moves of one {@link Searcher} so that alpha-beta cutoffs come
+ * early. The move stored in the transposition table goes first, then the two
+ * killer moves that last caused a cutoff at the same ply, then the rest by
+ * how often and how deep they have caused cutoffs anywhere (the history
+ * table). Far from the horizon, where a bad order costs the most, the rest are
+ * ordered by the opponent's mobility after the move instead, fewest replies
+ * first, with the history breaking ties.
+ * <p>
+ * Turned off, moves go in square order after the transposition table move,
+ * which is useful for measuring what the ordering saves.
+ */
+class MoveOrdering {
+
+  /**
+   * The smallest remaining depth at which moves are ordered by mobility.
+   */
+  static final int MOBILITY_DEPTH = 4;
+
+  private static final int HASH_SCORE = Integer.MAX_VALUE;
+  private static final int KILLER_SCORE = 1 << 30;
+
+  /**
+   * History scores are halved whenever one reaches this, so that they stay
+   * below the weight of a single reply in the mobility ordering.
+   */
+  private static final int HISTORY_LIMIT = 1 << 16;
+  private static final int MOBILITY_WEIGHT = HISTORY_LIMIT;
+
+  private final int[][] killers = new int[SearchBoard.MAX_PLIES + 1][2];
+  private final int[] history = new int[Bitboards.SQUARES];
+  private final int[] scores = new int[Bitboards.SQUARES];
+  private boolean enabled = true;
+
+  MoveOrdering() {
+    for (int[] ply : killers) {
+      ply[0] = TranspositionTable.NO_MOVE;
+      ply[1] = TranspositionTable.NO_MOVE;
+    }
+  }
+
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Lists the possible moves in the order to search them.
+   *
+   * @param hashMove
+   *          The move stored in the transposition table, or
+   *          {@link TranspositionTable#NO_MOVE}.
+   * @param ply
+   *          The number of moves and passes since the root.
+   * @param depth
+   *          The remaining depth.
+   * @param moves
+   *          Filled with the bitboard indices of the moves.
+   * @return The number of moves.
+   */
+  int order(long player, long opponent, long possible, int hashMove, int ply, int depth, int[] moves) {
+    int count = 0;
+    for (long rest = possible; rest != 0; rest &= rest - 1) {
+      int move = Long.numberOfTrailingZeros(rest);
+      moves[count] = move;
+      scores[count++] = score(player, opponent, move, hashMove, ply, depth);
+    }
+
+    // Insertion sort, best first; there are rarely more than a dozen moves
+    for (int i = 1; i < count; i++) {
+      int move = moves[i];
+      int score = scores[i];
+      int j = i - 1;
+      for (; j >= 0 && scores[j] < score; j--) {
+        moves[j + 1] = moves[j];
+        scores[j + 1] = scores[j];
+      }
+      moves[j + 1] = move;
+      scores[j + 1] = score;
+    }
+    return count;
+  }
+
+  /**
+   * Utility method for scoring a move for the ordering, higher first.
+   */
+  private int score(long player, long opponent, int move, int hashMove, int ply, int depth) {
+    if (move == hashMove) {
+      return HASH_SCORE;
+    }
+    if (!enabled) {
+      return -move;
+    }
+    if (move == killers[ply][0]) {
+      return KILLER_SCORE;
+    }
+    if (move == killers[ply][1]) {
+      return KILLER_SCORE - 1;
+    }
+    if (depth >= MOBILITY_DEPTH) {
+      long flips = Bitboards.flips(move, player, opponent);
+      int replies = Long.bitCount(Bitboards.moves(opponent & ~flips, player | flips | 1L << move));
+      return history[move] - replies * MOBILITY_WEIGHT;
+    }
+    return history[move];
+  }
+
+  /**
+   * Remembers a move that caused a cutoff, as a killer at its ply and in the
+   * history, weighted by the square of the remaining depth.
+   */
+  void cutoff(int move, int ply, int depth) {
+    if (!enabled) {
+      return;
+    }
+    if (killers[ply][0] != move) {
+      killers[ply][1] = killers[ply][0];
+      killers[ply][0] = move;
+    }
+    history[move] += depth * depth;
+    if (history[move] >= HISTORY_LIMIT) {
+      for (int square = 0; square < history.length; square++) {
+        history[square] >>= 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,582 @@
+package strategy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import reversi.Bitboards;
+import reversi.Player;
+import reversi.SearchBoard;
+
+/**
+ * Evaluates positions by looking up the contents of small groups of squares
+ * (patterns) in weight tables: edges with their X-squares, 3x3 and 2x5
+ * corners, and the diagonals of four to eight squares. Each pattern is read as
+ * a base-3 number with one digit per square (empty, player to move, opponent),
+ * and every rotation and reflection of a pattern shares its table. There is one
+ * set of tables per game phase, by number of empty squares.
+ * <p>
+ * Weights are kept in 1/{@link #SCALE} of a disc and evaluations are rounded to
+ * whole discs, so they compare directly with final disc differences. The
+ * weights can be saved to and loaded from a compact binary file; without one,
+ * {@link #positional()} derives them from a classic table of square values.
+ * <p>
+ * An evaluator is immutable and may be shared by any number of searches.
+ * {@link State} keeps the pattern numbers of a {@link SearchBoard} up to date
+ * as moves are made and unmade, so that evaluating a position only costs one
+ * table lookup per pattern.
+ */
+public final class PatternEvaluator {
+
+  /**
+   * The number of weight units per disc.
+   */
+  public static final int SCALE = 128;
+
+  /**
+   * The system property naming a weight file for {@link #getDefault()}.
+   */
+  public static final String WEIGHTS_PROPERTY = "reversi.weights";
+
+  /**
+   * The number of phases of {@link #positional()}.
+   */
+  public static final int DEFAULT_PHASES = 12;
+
+  private static final int MAX_EMPTIES = 60;
+  private static final int MAGIC = 0x52565057; // "RVPW"
+  private static final byte VERSION = 1;
+
+  /**
+   * The patterns near the (0, 0) corner, as {row, column} pairs in digit order.
+   */
+  private static final int[][][] SHAPES = {
+      // Edge and X-squares
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 0, 3 }, { 0, 4 }, { 0, 5 }, { 0, 6 }, { 0, 7 }, { 1, 1 }, { 1, 6 } },
+      // 3x3 corner
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 1, 0 }, { 1, 1 }, { 1, 2 }, { 2, 0 }, { 2, 1 }, { 2, 2 } },
+      // 2x5 corner
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 0, 3 }, { 0, 4 }, { 1, 0 }, { 1, 1 }, { 1, 2 }, { 1, 3 }, { 1, 4 } },
+      // Diagonals
+      { { 0, 0 }, { 1, 1 }, { 2, 2 }, { 3, 3 }, { 4, 4 }, { 5, 5 }, { 6, 6 }, { 7, 7 } },
+      { { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 4 }, { 4, 5 }, { 5, 6 }, { 6, 7 } },
+      { { 0, 2 }, { 1, 3 }, { 2, 4 }, { 3, 5 }, { 4, 6 }, { 5, 7 } },
+      { { 0, 3 }, { 1, 4 }, { 2, 5 }, { 3, 6 }, { 4, 7 } },
+      { { 0, 4 }, { 1, 5 }, { 2, 6 }, { 3, 7 } } };
+
+  /**
+   * The value of each square in the classic positional table, in tenths of a
+   * disc.
+   */
+  private static final int[] SQUARE_VALUES = {
+      100, -20, 10, 5, 5, 10, -20, 100,
+      -20, -50, -2, -2, -2, -2, -50, -20,
+      10, -2, -1, -1, -1, -1, -2, 10,
+      5, -2, -1, -1, -1, -1, -2, 5,
+      5, -2, -1, -1, -1, -1, -2, 5,
+      10, -2, -1, -1, -1, -1, -2, 10,
+      -20, -50, -2, -2, -2, -2, -50, -20,
+      100, -20, 10, 5, 5, 10, -20, 100 };
+
+  private static final int[] POWERS = { 1, 3, 9, 27, 81, 243, 729, 2187, 6561, 19683, 59049 };
+
+  /**
+   * The offset of each pattern's table within the weights of a phase.
+   */
+  static final int[] SHAPE_OFFSETS = new int[SHAPES.length];
+
+  /**
+   * The number of weights per phase, not counting the bias.
+   */
+  static final int FEATURES;
+
+  // Every rotation and reflection of the patterns: their squares, the offset
+  // of their table, and for each square, which of them contain it and with
+  // which power of 3
+  private static final int[][] INSTANCES;
+  private static final int[] INSTANCE_OFFSETS;
+  private static final int[][] SQUARE_INSTANCES = new int[Bitboards.SQUARES][];
+  private static final int[][] SQUARE_POWERS = new int[Bitboards.SQUARES][];
+
+  static {
+    int features = 0;
+    List<int[]> instances = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    for (int shape = 0; shape < SHAPES.length; ++shape) {
+      SHAPE_OFFSETS[shape] = features;
+      Set<Long> seen = new HashSet<>();
+      for (int symmetry = 0; symmetry < 8; ++symmetry) {
+        int[] squares = new int[SHAPES[shape].length];
+        long mask = 0;
+        for (int i = 0; i < squares.length; ++i) {
+          squares[i] = transform(SHAPES[shape][i][0], SHAPES[shape][i][1], symmetry);
+          mask |= 1L << squares[i];
+        }
+        if (seen.add(mask)) {
+          instances.add(squares);
+          offsets.add(features);
+        }
+      }
+      features += POWERS[SHAPES[shape].length];
+    }
+    FEATURES = features;
+    INSTANCES = instances.toArray(new int[0][]);
+    INSTANCE_OFFSETS = new int[INSTANCES.length];
+    for (int i = 0; i < INSTANCES.length; ++i) {
+      INSTANCE_OFFSETS[i] = offsets.get(i);
+    }
+
+    for (int square = 0; square < Bitboards.SQUARES; ++square) {
+      List<int[]> containing = new ArrayList<>();
+      for (int i = 0; i < INSTANCES.length; ++i) {
+        for (int digit = 0; digit < INSTANCES[i].length; ++digit) {
+          if (INSTANCES[i][digit] == square) {
+            containing.add(new int[] { i, POWERS[digit] });
+          }
+        }
+      }
+      SQUARE_INSTANCES[square] = new int[containing.size()];
+      SQUARE_POWERS[square] = new int[containing.size()];
+      for (int i = 0; i < containing.size(); ++i) {
+        SQUARE_INSTANCES[square][i] = containing.get(i)[0];
+        SQUARE_POWERS[square][i] = containing.get(i)[1];
+      }
+    }
+  }
+
+  private static PatternEvaluator defaultEvaluator;
+
+  private final int phases;
+  private final short[] biases;
+  // Per phase, the tables for black to move, where the player's digit is 1,
+  // and for white to move, where it is 2
+  private final short[][] blackTables;
+  private final short[][] whiteTables;
+  private final long fingerprint;
+
+  /**
+   * Low-level constructor. Intended only for use within this package.
+   *
+   * @param biases
+   *          The constant term of each phase.
+   * @param weights
+   *          The weights of each phase, {@link #FEATURES} per phase, indexed by
+   *          the pattern's offset plus its number with 1 for the player to move
+   *          and 2 for the opponent.
+   */
+  PatternEvaluator(short[] biases, short[][] weights) {
+    if (biases.length != weights.length || biases.length < 1) {
+      throw new IllegalArgumentException("need the same positive number of biases and weight tables");
+    }
+    this.phases = biases.length;
+    this.biases = biases.clone();
+    this.blackTables = new short[this.phases][];
+    this.whiteTables = new short[this.phases][];
+    for (int phase = 0; phase < this.phases; ++phase) {
+      if (weights[phase].length != FEATURES) {
+        throw new IllegalArgumentException("need " + FEATURES + " weights per phase, not " + weights[phase].length);
+      }
+      this.blackTables[phase] = weights[phase].clone();
+      this.whiteTables[phase] = new short[FEATURES];
+      for (int shape = 0; shape < SHAPES.length; ++shape) {
+        int offset = SHAPE_OFFSETS[shape];
+        for (int index = 0; index < POWERS[SHAPES[shape].length]; ++index) {
+          this.whiteTables[phase][offset + index] = weights[phase][offset + swap(index)];
+        }
+      }
+    }
+
+    // FNV-1a over the biases and weights
+    long hash = 0xcbf29ce484222325L;
+    for (int phase = 0; phase < this.phases; ++phase) {
+      hash = (hash ^ this.biases[phase]) * 0x100000001b3L;
+      for (short weight : this.blackTables[phase]) {
+        hash = (hash ^ weight) * 0x100000001b3L;
+      }
+    }
+    this.fingerprint = hash;
+  }
+
+  /**
+   * Utility method for applying one of the eight symmetries of the board to a
+   * square. Intended only for internal use.
+   *
+   * @return The bitboard index of the transformed square.
+   */
+  private static int transform(int row, int column, int symmetry) {
+    if ((symmetry & 1) != 0) {
+      int swap = row;
+      row = column;
+      column = swap;
+    }
+    if ((symmetry & 2) != 0) {
+      row = 7 - row;
+    }
+    if ((symmetry & 4) != 0) {
+      column = 7 - column;
+    }
+    return Bitboards.index(row, column);
+  }
+
+  /**
+   * Utility method for exchanging the digits 1 and 2 of a pattern number.
+   * Intended only for internal use.
+   */
+  private static int swap(int index) {
+    int swapped = 0;
+    for (int power = 1; index != 0; index /= 3, power *= 3) {
+      int digit = index % 3;
+      swapped += (digit == 0 ? 0 : 3 - digit) * power;
+    }
+    return swapped;
+  }
+
+  /**
+   * @return The phase of a position with the given number of empty squares.
+   *         Intended only for use within this package.
+   */
+  static int phase(int empties, int phases) {
+    return Math.max(0, Math.min(phases - 1, (empties - 1) * phases / MAX_EMPTIES));
+  }
+
+  /**
+   * Utility method for finding the pattern numbers of a position, with digit 1
+   * for the first bitboard and 2 for the second. Intended only for use within
+   * this package.
+   *
+   * @param indices
+   *          Receives one number per pattern instance.
+   */
+  static void indices(long ones, long twos, int[] indices) {
+    for (int i = 0; i < INSTANCES.length; ++i) {
+      int index = 0;
+      int[] squares = INSTANCES[i];
+      for (int digit = squares.length - 1; digit >= 0; --digit) {
+        long bit = 1L << squares[digit];
+        index = 3 * index + ((ones & bit) != 0 ? 1 : (twos & bit) != 0 ? 2 : 0);
+      }
+      indices[i] = index;
+    }
+  }
+
+  /**
+   * @return The number of pattern instances evaluated per position. Intended
+   *         only for use within this package.
+   */
+  static int instanceCount() {
+    return INSTANCES.length;
+  }
+
+  /**
+   * @return The offset of the table of each pattern instance within the
+   *         weights of a phase. Intended only for use within this package.
+   */
+  static int instanceOffset(int instance) {
+    return INSTANCE_OFFSETS[instance];
+  }
+
+  /**
+   * Utility method for evaluating pattern numbers with the tables of a phase.
+   * Intended only for internal use.
+   */
+  private int evaluate(short[] table, int bias, int[] indices) {
+    int sum = bias;
+    for (int i = 0; i < indices.length; ++i) {
+      sum += table[INSTANCE_OFFSETS[i] + indices[i]];
+    }
+    int score = Math.floorDiv(sum + SCALE / 2, SCALE);
+    return Math.max(-Bitboards.SQUARES, Math.min(Bitboards.SQUARES, score));
+  }
+
+  /**
+   * Evaluates a position from scratch. Searches should use a {@link State}.
+   *
+   * @param player
+   *          The bitboard of the discs of the player to move.
+   * @param opponent
+   *          The bitboard of the discs of their opponent.
+   * @return The estimated final disc difference in favour of the player to move.
+   */
+  public int evaluate(long player, long opponent) {
+    int[] indices = new int[INSTANCES.length];
+    indices(player, opponent, indices);
+    int phase = phase(Long.bitCount(~(player | opponent)), this.phases);
+    return this.evaluate(this.blackTables[phase], this.biases[phase], indices);
+  }
+
+  /**
+   * @return The number of phases with their own weights.
+   */
+  public int getPhases() {
+    return this.phases;
+  }
+
+  /**
+   * @return A hash of the phases and weights, which tells evaluators apart,
+   *         for example to check that {@link ProbCut} parameters were fitted
+   *         with this one.
+   */
+  public long getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * @return The bias of a phase. Intended only for use within this package.
+   */
+  short getBias(int phase) {
+    return this.biases[phase];
+  }
+
+  /**
+   * @return A copy of the weights of a phase, laid out as for the constructor.
+   *         Intended only for use within this package.
+   */
+  short[] getWeights(int phase) {
+    return this.blackTables[phase].clone();
+  }
+
+  /**
+   * @return The evaluator derived from the classic table of square values, where
+   *         a corner is worth ten discs and an X-square minus five. Each square's
+   *         value is shared between the patterns that contain it, and blends
+   *         into a plain disc count as the board fills up.
+   */
+  public static PatternEvaluator positional() {
+    return Positional.INSTANCE;
+  }
+
+  /**
+   * @return The evaluator saved in the file named by the
+   *         {@value #WEIGHTS_PROPERTY} system property, loaded on first use, or
+   *         {@link #positional()} if the property is not set.
+   * @throws java.io.UncheckedIOException
+   *           If the file could not be loaded.
+   */
+  public static synchronized PatternEvaluator getDefault() {
+    if (defaultEvaluator == null) {
+      String path = System.getProperty(WEIGHTS_PROPERTY);
+      try {
+        defaultEvaluator = path == null ? positional() : load(Paths.get(path));
+      } catch (IOException e) {
+        throw new UncheckedIOException("could not load pattern weights from " + path, e);
+      }
+    }
+    return defaultEvaluator;
+  }
+
+  /**
+   * Builds {@link PatternEvaluator#positional()} on first use.
+   */
+  private static class Positional {
+    static final PatternEvaluator INSTANCE = create();
+
+    private static PatternEvaluator create() {
+      int[] coverage = new int[Bitboards.SQUARES];
+      for (int[] squares : INSTANCES) {
+        for (int square : squares) {
+          ++coverage[square];
+        }
+      }
+      short[][] weights = new short[DEFAULT_PHASES][FEATURES];
+      for (int phase = 0; phase < DEFAULT_PHASES; ++phase) {
+        // The share of the positional value, against a plain disc count
+        double positional = (phase + 0.5) / DEFAULT_PHASES;
+        double[] values = new double[Bitboards.SQUARES];
+        for (int square = 0; square < Bitboards.SQUARES; ++square) {
+          double discs = positional * SQUARE_VALUES[square] / 10 + (1 - positional);
+          values[square] = discs * SCALE / coverage[square];
+        }
+        for (int shape = 0; shape < SHAPES.length; ++shape) {
+          // Every instance gets the same values, since the square values are
+          // symmetric
+          int[] squares = INSTANCES[firstInstance(shape)];
+          for (int index = 0; index < POWERS[squares.length]; ++index) {
+            double sum = 0;
+            int rest = index;
+            for (int digit = 0; digit < squares.length; ++digit, rest /= 3) {
+              sum += rest % 3 == 1 ? values[squares[digit]] : rest % 3 == 2 ? -values[squares[digit]] : 0;
+            }
+            weights[phase][SHAPE_OFFSETS[shape] + index] = (short) Math.round(sum);
+          }
+        }
+      }
+      return new PatternEvaluator(new short[DEFAULT_PHASES], weights);
+    }
+
+    private static int firstInstance(int shape) {
+      for (int i = 0; i < INSTANCES.length; ++i) {
+        if (INSTANCE_OFFSETS[i] == SHAPE_OFFSETS[shape]) {
+          return i;
+        }
+      }
+      throw new IllegalStateException("no instance of pattern " + shape);
+    }
+  }
+
+  /**
+   * Reads an evaluator in the format written by {@link #write(WritableByteChannel)}.
+   *
+   * @throws IOException
+   *           If the channel does not hold a supported weight file.
+   */
+  public static PatternEvaluator read(ReadableByteChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(6);
+    readFully(channel, header);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("not a pattern weight file");
+    }
+    byte version = header.get();
+    if (version != VERSION) {
+      throw new IOException("unsupported pattern weight version " + version);
+    }
+    int phases = header.get() & 0xFF;
+    if (phases < 1) {
+      throw new IOException("a pattern weight file needs at least one phase");
+    }
+    ByteBuffer body = ByteBuffer.allocate(phases * (1 + FEATURES) * Short.BYTES);
+    readFully(channel, body);
+    short[] biases = new short[phases];
+    short[][] weights = new short[phases][FEATURES];
+    for (int phase = 0; phase < phases; ++phase) {
+      biases[phase] = body.getShort();
+      body.asShortBuffer().get(weights[phase]);
+      body.position(body.position() + FEATURES * Short.BYTES);
+    }
+    return new PatternEvaluator(biases, weights);
+  }
+
+  /**
+   * Utility method for filling a buffer from a channel. Intended only for
+   * internal use.
+   */
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("truncated pattern weight file");
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Reads the evaluator saved at the given path.
+   */
+  public static PatternEvaluator load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return read(channel);
+    }
+  }
+
+  /**
+   * Writes the weights to a channel: a four-byte magic number, a version byte
+   * and the number of phases, then for each phase its bias and weights as
+   * big-endian 16-bit integers. {@link #positional()} takes about 3.5 MB.
+   */
+  public void write(WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(6 + this.phases * (1 + FEATURES) * Short.BYTES);
+    buffer.putInt(MAGIC).put(VERSION).put((byte) this.phases);
+    for (int phase = 0; phase < this.phases; ++phase) {
+      buffer.putShort(this.biases[phase]);
+      buffer.asShortBuffer().put(this.blackTables[phase]);
+      buffer.position(buffer.position() + FEATURES * Short.BYTES);
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Creates or replaces the weight file at the given path.
+   */
+  public void save(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      this.write(channel);
+    }
+  }
+
+  /**
+   * The pattern numbers of a {@link SearchBoard}, with digit 1 for black and 2
+   * for white. The search calls {@link #play(Player, int, long)} and
+   * {@link #undo(Player, int, long)} alongside {@link SearchBoard#makeMove(int)}
+   * and {@link SearchBoard#undoMove()}; passes change nothing.
+   */
+  static final class State {
+    private final PatternEvaluator evaluator;
+    private final SearchBoard board;
+    private final int[] indices = new int[INSTANCES.length];
+
+    State(PatternEvaluator evaluator, SearchBoard board) {
+      this.evaluator = evaluator;
+      this.board = board;
+      boolean black = board.getCurrentPlayer() == Player.BLACK;
+      indices(black ? board.getPlayerDiscs() : board.getOpponentDiscs(),
+          black ? board.getOpponentDiscs() : board.getPlayerDiscs(), this.indices);
+    }
+
+    /**
+     * Updates the pattern numbers for a move.
+     *
+     * @param mover
+     *          The player who made the move.
+     * @param square
+     *          The bitboard index of the square played.
+     * @param flips
+     *          The discs captured, as returned by {@link SearchBoard#makeMove(int)}.
+     */
+    void play(Player mover, int square, long flips) {
+      this.update(mover, square, flips, 1);
+    }
+
+    /**
+     * Reverts {@link #play(Player, int, long)} with the same arguments.
+     */
+    void undo(Player mover, int square, long flips) {
+      this.update(mover, square, flips, -1);
+    }
+
+    private void update(Player mover, int square, long flips, int sign) {
+      int placed = mover == Player.BLACK ? sign : 2 * sign;
+      // Captured discs go from 2 to 1 for black, and from 1 to 2 for white
+      int flipped = mover == Player.BLACK ? -sign : sign;
+      int[] instances = SQUARE_INSTANCES[square];
+      int[] powers = SQUARE_POWERS[square];
+      for (int i = 0; i < instances.length; ++i) {
+        this.indices[instances[i]] += placed * powers[i];
+      }
+      for (; flips != 0; flips &= flips - 1) {
+        int flip = Long.numberOfTrailingZeros(flips);
+        instances = SQUARE_INSTANCES[flip];
+        powers = SQUARE_POWERS[flip];
+        for (int i = 0; i < instances.length; ++i) {
+          this.indices[instances[i]] += flipped * powers[i];
+        }
+      }
+    }
+
+    /**
+     * @return The evaluation of the board in its current state, from the side of
+     *         the player to move.
+     */
+    int evaluate() {
+      int phase = phase(this.board.getEmptyCount(), this.evaluator.phases);
+      short[] table = this.board.getCurrentPlayer() == Player.BLACK
+          ? this.evaluator.blackTables[phase]
+          : this.evaluator.whiteTables[phase];
+      return this.evaluator.evaluate(table, this.evaluator.biases[phase], this.indices);
+    }
+  }
+
+}
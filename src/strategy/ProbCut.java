@@ -0,0 +1,442 @@
+package strategy;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import reversi.Bitboards;
+
+/**
+ * The parameters of Multi-ProbCut, a selective search that predicts the
+ * result of a deep search from shallow ones. For every stage of the game, by
+ * number of empty squares, and every depth it covers, the deep score v is
+ * modelled as {@code v = slope * v' + intercept + e} from the score v' of each
+ * of up to {@value #MAX_CHECKS} shallower searches, with a normal error e of
+ * deviation sigma. Before searching a null-window position deeply, the search
+ * checks the shallow scores in turn, cheapest first, against the window moved
+ * out by threshold deviations, and cuts the position off as soon as one makes
+ * the deep score very likely to fall outside the window anyway.
+ * <p>
+ * The shallow depths are about half the deep one and two less than that, with
+ * the same parity, since scores swing with the side to move at the horizon.
+ * The regressions are fitted offline by {@link ProbCutFitter} from logged
+ * fixed-depth searches. A stage with no regression for a depth uses those of
+ * the nearest stage that has one. A larger threshold cuts less often and errs
+ * less often.
+ * <p>
+ * The scores, and so the regressions, depend on the {@link PatternEvaluator}
+ * that scored the searches, which the parameters record by its fingerprint.
+ * The built-in parameters were fitted with {@link PatternEvaluator#positional()}.
+ * Other weights, such as those set with the
+ * {@value PatternEvaluator#WEIGHTS_PROPERTY} system property, need parameters
+ * fitted with them; {@link #forEvaluator(PatternEvaluator)} does not use
+ * parameters fitted with another evaluator.
+ */
+public final class ProbCut {
+
+  /**
+   * The system property naming a parameter file for {@link #getDefault()}.
+   */
+  public static final String PARAMETERS_PROPERTY = "reversi.probcut";
+
+  /**
+   * The default number of standard deviations a shallow score must clear.
+   */
+  public static final double DEFAULT_THRESHOLD = 1.5;
+
+  /**
+   * The smallest depth at which positions are cut off.
+   */
+  static final int MIN_DEPTH = 3;
+
+  /**
+   * The number of empty squares in each stage of the game, starting from none.
+   */
+  static final int STAGE_EMPTIES = 8;
+
+  /**
+   * The most shallow searches tried before searching a position in full.
+   */
+  static final int MAX_CHECKS = 2;
+
+  private static final int STAGES = Bitboards.SQUARES / STAGE_EMPTIES + 1;
+
+  /**
+   * The parameters fitted by {@link ProbCutFitter} from its default 800 random
+   * positions with 20 to 52 empty squares, searched with the positional
+   * evaluator to depth 10, as
+   * {stage, deep depth, shallow depth, slope, intercept, sigma}.
+   */
+  private static final double[][] FITTED = {
+      { 2, 3, 1, 0.8477, 0.8035, 2.3111 },
+      { 2, 4, 2, 0.9282, -0.0297, 2.1958 },
+      { 2, 5, 1, 0.8182, 1.1393, 3.3902 },
+      { 2, 6, 2, 0.8879, -0.2022, 3.4179 },
+      { 2, 7, 1, 0.8209, 1.4937, 4.4289 },
+      { 2, 7, 3, 1.0381, 0.3367, 3.2199 },
+      { 2, 8, 2, 0.9318, -0.2374, 4.7260 },
+      { 2, 8, 4, 1.1207, -0.0272, 3.0315 },
+      { 2, 9, 1, 0.8833, 1.2106, 5.9281 },
+      { 2, 9, 3, 1.1610, -0.2735, 4.6259 },
+      { 2, 10, 2, 1.0071, -0.1923, 6.2431 },
+      { 2, 10, 4, 1.2452, 0.0872, 4.5648 },
+      { 3, 3, 1, 0.9570, 0.1259, 1.7519 },
+      { 3, 4, 2, 0.9611, -0.3290, 1.5808 },
+      { 3, 5, 1, 0.9469, 0.4941, 2.5170 },
+      { 3, 6, 2, 0.9602, -0.4168, 2.4123 },
+      { 3, 7, 1, 0.9177, 0.9137, 3.2118 },
+      { 3, 7, 3, 0.9902, 0.6748, 2.3401 },
+      { 3, 8, 2, 0.9665, -0.5207, 3.2921 },
+      { 3, 8, 4, 1.0295, -0.1475, 2.5908 },
+      { 3, 9, 1, 0.9119, 1.0977, 4.2524 },
+      { 3, 9, 3, 1.0113, 0.7572, 3.3914 },
+      { 3, 10, 2, 0.9675, -0.6598, 4.3593 },
+      { 3, 10, 4, 1.0437, -0.2628, 3.7373 },
+      { 4, 3, 1, 0.9462, 0.3731, 1.2344 },
+      { 4, 4, 2, 0.9458, -0.2900, 1.1710 },
+      { 4, 5, 1, 0.9364, 0.6269, 1.5745 },
+      { 4, 6, 2, 0.9469, -0.3778, 1.5258 },
+      { 4, 7, 1, 0.9292, 0.8518, 2.0192 },
+      { 4, 7, 3, 0.9873, 0.4678, 1.5356 },
+      { 4, 8, 2, 0.9384, -0.5461, 1.9807 },
+      { 4, 8, 4, 1.0008, -0.2535, 1.4661 },
+      { 4, 9, 1, 0.9342, 1.1831, 2.3974 },
+      { 4, 9, 3, 0.9939, 0.7926, 1.9866 },
+      { 4, 10, 2, 0.9613, -0.5344, 2.4115 },
+      { 4, 10, 4, 1.0286, -0.2327, 1.9446 },
+      { 5, 3, 1, 0.9539, 0.2964, 0.7650 },
+      { 5, 4, 2, 0.9842, -0.0460, 0.7228 },
+      { 5, 5, 1, 0.9621, 0.4329, 0.8568 },
+      { 5, 6, 2, 0.9303, -0.3314, 0.9491 },
+      { 5, 7, 1, 0.9228, 0.6198, 1.0798 },
+      { 5, 7, 3, 0.9595, 0.3498, 0.9161 },
+      { 5, 8, 2, 0.9308, -0.4938, 1.2101 },
+      { 5, 8, 4, 0.9485, -0.4501, 0.9583 },
+      { 5, 9, 1, 0.9255, 0.8432, 1.2945 },
+      { 5, 9, 3, 0.9633, 0.5704, 1.1490 },
+      { 5, 10, 2, 0.9047, -0.6466, 1.4271 },
+      { 5, 10, 4, 0.9214, -0.6042, 1.2395 },
+      { 6, 3, 1, 0.9689, 0.1863, 0.5251 },
+      { 6, 4, 2, 0.9437, -0.1279, 0.6106 },
+      { 6, 5, 1, 0.9349, 0.4083, 0.7033 },
+      { 6, 6, 2, 0.9154, -0.2410, 0.6922 },
+      { 6, 7, 1, 0.9028, 0.5792, 0.8618 },
+      { 6, 7, 3, 0.9286, 0.4092, 0.7416 },
+      { 6, 8, 2, 0.8981, -0.3466, 0.8342 },
+      { 6, 8, 4, 0.9432, -0.2255, 0.6953 },
+      { 6, 9, 1, 0.9053, 0.7981, 1.0349 },
+      { 6, 9, 3, 0.9393, 0.6184, 0.8692 },
+      { 6, 10, 2, 0.8889, -0.4608, 0.9223 },
+      { 6, 10, 4, 0.9356, -0.3408, 0.7819 },
+  };
+
+  private static ProbCut defaultProbCut;
+  private static boolean warned;
+
+  // The regressions as given, for writing them out
+  private final List<double[]> rows;
+  private final long evaluator;
+  // Indexed by stage, deep depth and check, cheapest check first
+  private final int[][] checks;
+  private final int[][][] shallow;
+  private final double[][][] slope;
+  private final double[][][] intercept;
+  private final double[][][] sigma;
+  private final double threshold;
+
+  /**
+   * Utility constructor for the regressions as given and their tables.
+   * Intended only for internal use.
+   */
+  private ProbCut(List<double[]> rows, long evaluator, int[][] checks, int[][][] shallow, double[][][] slope,
+      double[][][] intercept, double[][][] sigma, double threshold) {
+    this.rows = rows;
+    this.evaluator = evaluator;
+    this.checks = checks;
+    this.shallow = shallow;
+    this.slope = slope;
+    this.intercept = intercept;
+    this.sigma = sigma;
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param rows
+   *          One regression per row, as {stage, deep depth, shallow depth,
+   *          slope, intercept, sigma}.
+   * @param evaluator
+   *          The fingerprint of the evaluator the regressions were fitted with.
+   */
+  static ProbCut of(List<double[]> rows, long evaluator, double threshold) {
+    int maxDepth = 0;
+    for (double[] row : rows) {
+      int stage = (int) row[0];
+      int depth = (int) row[1];
+      if (row.length != 6 || stage < 0 || stage >= STAGES || depth < MIN_DEPTH || row[2] < 1 || row[2] >= depth
+          || !(row[3] > 0) || !(row[5] >= 0)) {
+        throw new IllegalArgumentException("not a regression: " + Arrays.toString(row));
+      }
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    int[][] checks = new int[STAGES][maxDepth + 1];
+    int[][][] shallow = new int[STAGES][maxDepth + 1][MAX_CHECKS];
+    double[][][] slope = new double[STAGES][maxDepth + 1][MAX_CHECKS];
+    double[][][] intercept = new double[STAGES][maxDepth + 1][MAX_CHECKS];
+    double[][][] sigma = new double[STAGES][maxDepth + 1][MAX_CHECKS];
+    for (int stage = 0; stage < STAGES; stage++) {
+      for (int depth = MIN_DEPTH; depth <= maxDepth; depth++) {
+        int nearest = nearestStage(rows, stage, depth);
+        if (nearest < 0) {
+          continue;
+        }
+        for (double[] row : rows) {
+          if ((int) row[0] != nearest || (int) row[1] != depth) {
+            continue;
+          }
+          int count = checks[stage][depth];
+          if (count == MAX_CHECKS) {
+            throw new IllegalArgumentException("more than " + MAX_CHECKS + " regressions for stage " + nearest
+                + " at depth " + depth);
+          }
+          // Insert in order of shallow depth, so that cheaper checks come first
+          int check = count;
+          for (; check > 0 && shallow[stage][depth][check - 1] > row[2]; check--) {
+            shallow[stage][depth][check] = shallow[stage][depth][check - 1];
+            slope[stage][depth][check] = slope[stage][depth][check - 1];
+            intercept[stage][depth][check] = intercept[stage][depth][check - 1];
+            sigma[stage][depth][check] = sigma[stage][depth][check - 1];
+          }
+          shallow[stage][depth][check] = (int) row[2];
+          slope[stage][depth][check] = row[3];
+          intercept[stage][depth][check] = row[4];
+          sigma[stage][depth][check] = row[5];
+          checks[stage][depth] = count + 1;
+        }
+      }
+    }
+    return new ProbCut(new ArrayList<>(rows), evaluator, checks, shallow, slope, intercept, sigma, threshold);
+  }
+
+  /**
+   * Utility method for finding the stage nearest the given one with a
+   * regression for the given depth, preferring fewer empty squares on a tie.
+   * Intended only for internal use.
+   *
+   * @return The stage, or -1 if no stage has one.
+   */
+  private static int nearestStage(List<double[]> rows, int stage, int depth) {
+    int nearest = -1;
+    for (double[] row : rows) {
+      int candidate = (int) row[0];
+      if ((int) row[1] != depth) {
+        continue;
+      }
+      int distance = Math.abs(candidate - stage);
+      int best = Math.abs(nearest - stage);
+      if (nearest < 0 || distance < best || (distance == best && candidate < nearest)) {
+        nearest = candidate;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * @return The stage of a position with the given number of empty squares.
+   */
+  static int stage(int empties) {
+    return Math.min(empties / STAGE_EMPTIES, STAGES - 1);
+  }
+
+  /**
+   * @return The shallow depths checked for a deep depth, cheapest first: about
+   *         half of it and two less, with the same parity.
+   */
+  static int[] shallowDepths(int depth) {
+    int shallow = depth / 2;
+    if ((depth - shallow) % 2 != 0) {
+      shallow--;
+    }
+    shallow = Math.max(shallow, depth % 2 == 0 ? 2 : 1);
+    return shallow - 2 >= 1 ? new int[] { shallow - 2, shallow } : new int[] { shallow };
+  }
+
+  /**
+   * @return The same regressions with another threshold.
+   */
+  public ProbCut withThreshold(double threshold) {
+    return new ProbCut(rows, evaluator, checks, shallow, slope, intercept, sigma, threshold);
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @return The deepest depth with a regression. Deeper positions are searched
+   *         in full.
+   */
+  public int getMaxDepth() {
+    return checks[0].length - 1;
+  }
+
+  /**
+   * @return True if the regressions were fitted with the given evaluator.
+   */
+  public boolean isFittedFor(PatternEvaluator evaluator) {
+    return evaluator.getFingerprint() == this.evaluator;
+  }
+
+  /**
+   * @return The number of shallow searches to check for a position with the
+   *         given number of empty squares and depth, zero if it is not cut off.
+   */
+  int checks(int empties, int depth) {
+    return depth < checks[0].length ? checks[stage(empties)][depth] : 0;
+  }
+
+  /**
+   * @return The depth of the given shallow search.
+   */
+  int shallow(int empties, int depth, int check) {
+    return shallow[stage(empties)][depth][check];
+  }
+
+  /**
+   * @return The score of the given shallow search at or above which the deep
+   *         score is very likely to reach beta, or more than any score if there
+   *         is none.
+   */
+  int upperCut(int empties, int depth, int check, int beta) {
+    int stage = stage(empties);
+    double bound = Math.ceil((beta - intercept[stage][depth][check] + threshold * sigma[stage][depth][check])
+        / slope[stage][depth][check]);
+    return bound > Bitboards.SQUARES ? Searcher.INFINITY : (int) bound;
+  }
+
+  /**
+   * @return The score of the given shallow search at or below which the deep
+   *         score is very likely to stay at or below alpha, or less than any
+   *         score if there is none.
+   */
+  int lowerCut(int empties, int depth, int check, int alpha) {
+    int stage = stage(empties);
+    double bound = Math.floor((alpha - intercept[stage][depth][check] - threshold * sigma[stage][depth][check])
+        / slope[stage][depth][check]);
+    return bound < -Bitboards.SQUARES ? -Searcher.INFINITY : (int) bound;
+  }
+
+  /**
+   * @return The parameters named by the {@value #PARAMETERS_PROPERTY} system
+   *         property, loaded on first use, or the built-in fitted ones if the
+   *         property is not set, with the default threshold.
+   * @throws java.io.UncheckedIOException
+   *           If the file could not be loaded.
+   */
+  public static synchronized ProbCut getDefault() {
+    if (defaultProbCut == null) {
+      String path = System.getProperty(PARAMETERS_PROPERTY);
+      try {
+        defaultProbCut = path == null
+            ? of(Arrays.asList(FITTED), PatternEvaluator.positional().getFingerprint(), DEFAULT_THRESHOLD)
+            : load(Paths.get(path));
+      } catch (IOException e) {
+        throw new UncheckedIOException("could not load ProbCut parameters from " + path, e);
+      }
+    }
+    return defaultProbCut;
+  }
+
+  /**
+   * @return The {@link #getDefault()} parameters if they were fitted with the
+   *         given evaluator, or null, after warning once on standard error,
+   *         since cutting off positions by another evaluator's regressions
+   *         would err far more often than the threshold allows.
+   */
+  public static synchronized ProbCut forEvaluator(PatternEvaluator evaluator) {
+    ProbCut probCut = getDefault();
+    if (probCut.isFittedFor(evaluator)) {
+      return probCut;
+    }
+    if (!warned) {
+      warned = true;
+      System.err.println("ProbCut is off: its parameters were fitted with another evaluator; fit new ones with "
+          + "ProbCutFitter and load them with -D" + PARAMETERS_PROPERTY);
+    }
+    return null;
+  }
+
+  /**
+   * Reads parameters saved by {@link #save(Path)}, with the default threshold.
+   * Lines starting with {@code #} are comments.
+   *
+   * @throws IOException
+   *           If the file could not be read or is not a parameter file.
+   */
+  public static ProbCut load(Path path) throws IOException {
+    List<double[]> rows = new ArrayList<>();
+    Long evaluator = null;
+    for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      try {
+        if (fields.length == 2 && fields[0].equals("evaluator")) {
+          evaluator = Long.parseUnsignedLong(fields[1], 16);
+          continue;
+        }
+        if (fields.length != 6) {
+          throw new IOException("not a ProbCut parameter line: " + line);
+        }
+        double[] row = new double[6];
+        for (int i = 0; i < row.length; i++) {
+          row[i] = Double.parseDouble(fields[i]);
+        }
+        rows.add(row);
+      } catch (NumberFormatException e) {
+        throw new IOException("not a ProbCut parameter line: " + line, e);
+      }
+    }
+    if (evaluator == null) {
+      throw new IOException("no evaluator fingerprint in " + path);
+    }
+    try {
+      return of(rows, evaluator, DEFAULT_THRESHOLD);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the fingerprint of the evaluator and the regressions as text, one
+   * per line, in the format read by {@link #load(Path)}. The threshold is not
+   * written.
+   */
+  public void write(Appendable out) throws IOException {
+    out.append(String.format(Locale.ROOT, "evaluator %016x\n", evaluator));
+    out.append("# stage deep shallow slope intercept sigma, with stages of " + STAGE_EMPTIES + " empty squares\n");
+    for (double[] row : rows) {
+      out.append(String.format(Locale.ROOT, "%d %d %d %.4f %.4f %.4f\n", (int) row[0], (int) row[1], (int) row[2],
+          row[3], row[4], row[5]));
+    }
+  }
+
+  /**
+   * Saves the regressions with {@link #write(Appendable)}.
+   */
+  public void save(Path path) throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      this.write(out);
+    }
+  }
+}
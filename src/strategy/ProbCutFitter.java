@@ -0,0 +1,228 @@
+package strategy;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import reversi.Board;
+
+/**
+ * Fits the {@link ProbCut} regressions offline. Positions are searched to
+ * every depth up to a maximum with ProbCut off, and their scores are logged,
+ * one line per search. Then, for every stage of the game and every depth, the
+ * scores are regressed on those of each of its shallow depths by least
+ * squares, and the deviation of the residuals becomes sigma. The log records
+ * the fingerprint of the evaluator, which the parameters keep.
+ */
+public class ProbCutFitter {
+
+  private static final String LOG_HEADER = "position,empties,depth,score";
+  private static final String LOG_EVALUATOR = "# evaluator ";
+
+  /**
+   * The fewest searches a regression is fitted from.
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  private ProbCutFitter() {
+  }
+
+  /**
+   * Searches every position to every depth up to the maximum with the default
+   * evaluator and writes the scores to a new log, flushing after each position
+   * so that a long run can be stopped and fitted early.
+   *
+   * @param progress
+   *          Where to print a line per position, or null for nowhere.
+   */
+  public static void log(List<Board> positions, int maxDepth, Path log, PrintStream progress) throws IOException {
+    Reversi strategy = new Reversi(1, TimeUnit.SECONDS);
+    strategy.setProbCut(null);
+    try (BufferedWriter out = Files.newBufferedWriter(log, StandardCharsets.UTF_8)) {
+      out.write(String.format("%s%016x\n", LOG_EVALUATOR, PatternEvaluator.getDefault().getFingerprint()));
+      out.write(LOG_HEADER + "\n");
+      for (int position = 0; position < positions.size(); position++) {
+        Board board = positions.get(position);
+        int empties = board.size() * board.size() - board.getSquareOwners().size();
+        long start = System.nanoTime();
+        for (int depth = 1; depth <= maxDepth; depth++) {
+          strategy.clear();
+          strategy.search(board, depth, Long.MAX_VALUE, Long.MAX_VALUE);
+          out.write(position + "," + empties + "," + depth + "," + strategy.getScore() + "\n");
+        }
+        out.flush();
+        if (progress != null) {
+          progress.printf("position %d of %d, %d empties, %d ms\n", position + 1, positions.size(), empties,
+              (System.nanoTime() - start) / 1000000);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fits a regression for every stage with enough logged positions, every
+   * depth from {@link ProbCut#MIN_DEPTH} up to the deepest logged one and each
+   * of its shallow depths, with the default threshold.
+   *
+   * @throws IOException
+   *           If the log could not be read or is malformed.
+   */
+  public static ProbCut fit(Path log) throws IOException {
+    // The logged scores of each position, by depth, and the stage of each
+    Map<Integer, Map<Integer, Integer>> scores = new TreeMap<>();
+    Map<Integer, Integer> stages = new TreeMap<>();
+    Long evaluator = null;
+    int maxDepth = 0;
+    for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+      if (line.isEmpty() || line.equals(LOG_HEADER)) {
+        continue;
+      }
+      try {
+        if (line.startsWith(LOG_EVALUATOR)) {
+          evaluator = Long.parseUnsignedLong(line.substring(LOG_EVALUATOR.length()), 16);
+          continue;
+        }
+        String[] fields = line.split(",");
+        int position = Integer.parseInt(fields[0]);
+        int depth = Integer.parseInt(fields[2]);
+        if (!scores.containsKey(position)) {
+          scores.put(position, new TreeMap<Integer, Integer>());
+        }
+        scores.get(position).put(depth, Integer.parseInt(fields[3]));
+        stages.put(position, ProbCut.stage(Integer.parseInt(fields[1])));
+        maxDepth = Math.max(maxDepth, depth);
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+        throw new IOException("not a search log line: " + line, e);
+      }
+    }
+    if (evaluator == null) {
+      throw new IOException("no evaluator fingerprint in " + log);
+    }
+
+    List<double[]> rows = new ArrayList<>();
+    for (int stage : new TreeSet<>(stages.values())) {
+      for (int depth = ProbCut.MIN_DEPTH; depth <= maxDepth; depth++) {
+        for (int shallow : ProbCut.shallowDepths(depth)) {
+          List<Map<Integer, Integer>> sample = new ArrayList<>();
+          for (Map.Entry<Integer, Map<Integer, Integer>> position : scores.entrySet()) {
+            if (stages.get(position.getKey()) == stage) {
+              sample.add(position.getValue());
+            }
+          }
+          double[] row = regress(sample, depth, shallow);
+          if (row != null) {
+            rows.add(new double[] { stage, depth, shallow, row[0], row[1], row[2] });
+          }
+        }
+      }
+    }
+    if (rows.isEmpty()) {
+      throw new IOException("not enough searches logged in " + log + " to fit any depth");
+    }
+    return ProbCut.of(rows, evaluator, ProbCut.DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Utility method for regressing the scores at one depth on those at a
+   * shallower one. Intended only for internal use.
+   *
+   * @return The slope, intercept and sigma, or null if there are too few
+   *         searches or the fit is degenerate.
+   */
+  private static double[] regress(List<Map<Integer, Integer>> scores, int depth, int shallow) {
+    double n = 0, sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+    for (Map<Integer, Integer> byDepth : scores) {
+      Integer x = byDepth.get(shallow);
+      Integer y = byDepth.get(depth);
+      if (x != null && y != null) {
+        n++;
+        sumX += x;
+        sumY += y;
+        sumXX += (double) x * x;
+        sumXY += (double) x * y;
+      }
+    }
+    double variance = n * sumXX - sumX * sumX;
+    if (n < MIN_SAMPLES || variance == 0) {
+      return null;
+    }
+    double slope = (n * sumXY - sumX * sumY) / variance;
+    double intercept = (sumY - slope * sumX) / n;
+    if (!(slope > 0)) {
+      return null;
+    }
+    double squares = 0;
+    for (Map<Integer, Integer> byDepth : scores) {
+      Integer x = byDepth.get(shallow);
+      Integer y = byDepth.get(depth);
+      if (x != null && y != null) {
+        double residual = y - (slope * x + intercept);
+        squares += residual * residual;
+      }
+    }
+    return new double[] { slope, intercept, Math.sqrt(squares / (n - 2)) };
+  }
+
+  /**
+   * @return Positions reached by playing random moves from the initial board,
+   *         leaving between 20 and 52 empty squares, where the midgame search
+   *         rather than the endgame solver decides. The random moves are seeded,
+   *         so the positions are the same on every run.
+   */
+  static List<Board> positions(int count) {
+    Random random = new Random(486);
+    int[] moves = new int[32];
+    List<Board> positions = new ArrayList<>();
+    while (positions.size() < count) {
+      Board board = new Board();
+      int plies = 8 + random.nextInt(33);
+      for (int i = 0; i < plies && !board.isComplete(); i++) {
+        if (!board.hasCurrentPossibleSquares()) {
+          board = board.pass();
+        } else {
+          board = board.play(moves[random.nextInt(board.getPossibleMoves(moves))]);
+        }
+      }
+      if (board.hasCurrentPossibleSquares()) {
+        positions.add(board);
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * Logs searches of random midgame positions, unless the log already exists,
+   * and fits and saves the parameters from the log.
+   * <p>
+   * Arguments: {@code <log> <parameters> [positions] [max depth]}, by default
+   * 800 positions and a maximum depth of 10. Load the parameters with the
+   * {@value ProbCut#PARAMETERS_PROPERTY} system property.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: ProbCutFitter <log> <parameters> [positions] [max depth]");
+      System.exit(2);
+    }
+    Path log = Paths.get(args[0]);
+    int count = args.length > 2 ? Integer.parseInt(args[2]) : 800;
+    int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    if (!Files.exists(log)) {
+      log(positions(count), maxDepth, log, System.out);
+    }
+    ProbCut probCut = fit(log);
+    probCut.save(Paths.get(args[1]));
+    probCut.write(System.out);
+  }
+}
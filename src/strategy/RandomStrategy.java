@@ -2,8 +2,8 @@ package strategy;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import reversi.Board;
 import reversi.Square;
@@ -30,6 +30,6 @@ public class RandomStrategy implements Strategy {
    */
   public static <T> T chooseOne(Set<T> itemSet) {
     List<T> itemList = new ArrayList<>(itemSet);
-    return itemList.get(new Random().nextInt(itemList.size()));
+    return itemList.get(ThreadLocalRandom.current().nextInt(itemList.size()));
   }
 }
@@ -1,23 +1,143 @@
 package strategy;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import reversi.BestMove;
 import reversi.Board;
+import reversi.DeadlineStrategy;
+import reversi.Player;
+import reversi.PonderingStrategy;
+import reversi.ReportingStrategy;
+import reversi.SearchBoard;
 import reversi.Square;
-import reversi.Strategy;
-import java.util.Random;
 
 /**
  * An AI based strategy for choosing a square based
  * on the current state of the board.
+ * <p>
+ * The search deepens iteratively until its time budget runs out, always keeping
+ * the best move of the last completed iteration, so it can be stopped at any
+ * point and still play a searched move. Games that pass a deadline get the
+ * whole of their time, with the move of every completed iteration published as
+ * it is found. With more than one thread, helper threads search the same
+ * position alongside the main one and share results through the transposition
+ * table (Lazy SMP). Positions at the search horizon are scored by a
+ * {@link PatternEvaluator}, and positions whose deep result a shallow search
+ * predicts confidently are cut off early ({@link ProbCut}), unless that is
+ * turned off. Once few enough squares are empty, the {@link EndgameSolver}
+ * plays perfectly instead.
+ * <p>
+ * With pondering on, the strategy keeps searching while the opponent thinks,
+ * on the position after the reply it expects. The results stay in the
+ * transposition table, so when the opponent plays that reply, the next search
+ * quickly regains the depth reached and carries on from there.
+ * <p>
+ * A strategy that searches with more than one thread must be closed once it
+ * has played its last move, to stop the helper threads.
  *
  * @author AJ Priola
  * @version 0.0.1
  * @since 2018-10-25
  */
-public class Reversi implements Strategy {
+public class Reversi implements ReportingStrategy, PonderingStrategy, DeadlineStrategy, AutoCloseable {
+
+  /**
+   * The part of the timeout kept back for scheduling and garbage collection
+   * pauses: whichever is larger of this many milliseconds or 1/20 of the
+   * timeout.
+   */
+  private static final long SAFETY_MARGIN = 50;
+
+  /**
+   * Positions with more empty squares than this count as the opening, where
+   * only half of the budget is spent.
+   */
+  private static final int OPENING_EMPTIES = 44;
+
+  /**
+   * The default number of empty squares at which the endgame is solved exactly.
+   */
+  public static final int DEFAULT_ENDGAME_EMPTIES = 16;
+
+  private final long timeoutNanos;
+  private final int threads;
+  private final TranspositionTable table = new TranspositionTable(20);
+  private final EndgameSolver solver = new EndgameSolver();
+  private PatternEvaluator evaluator = PatternEvaluator.getDefault();
+  private int endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
+  private ExecutorService helpers;
+  private boolean closed;
+
+  // Pondering, on a thread of its own between the opponent's moves
+  private boolean ponder;
+  private ExecutorService ponderer;
+  private Future<?> ponderSearch;
+  private Searcher.Limits ponderLimits;
+  private Board ponderBoard;
+  private boolean ponderHit;
+  private boolean keepAge;
+  private long ponderNodes;
+  private int ponderDepth;
+
+  private long nodes;
+  private long probes, hits;
+  private long cutoffs, firstMoveCutoffs;
+  private boolean moveOrdering = true;
+  private ProbCut probCut = ProbCut.forEvaluator(evaluator);
+  private long probCutTries, probCuts;
+  private long elapsed;
+  private int completedDepth;
+  private boolean solved;
+  private int score;
+  private long researches;
+  private List<Square> principalVariation = new ArrayList<>();
+
+  /**
+   * Creates a single-threaded strategy for games that allow one second per
+   * move.
+   */
+  public Reversi() {
+    this(1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Creates a single-threaded strategy for games with the given timeout.
+   *
+   * @param timeout
+   *          The maximum time the game allows for choosing a square.
+   * @param timeoutUnit
+   *          The unit of the timeout.
+   */
+  public Reversi(long timeout, TimeUnit timeoutUnit) {
+    this(timeout, timeoutUnit, 1);
+  }
 
-  private final long TIME = 1000;
-  private long start;
-  private int nodeEnd, epthEnd;
+  /**
+   * Creates a strategy for games with the given timeout.
+   *
+   * @param timeout
+   *          The maximum time the game allows for choosing a square.
+   * @param timeoutUnit
+   *          The unit of the timeout.
+   * @param threads
+   *          The number of threads to search with.
+   */
+  public Reversi(long timeout, TimeUnit timeoutUnit, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one search thread is needed, not " + threads);
+    }
+    this.timeoutNanos = timeoutUnit.toNanos(timeout);
+    this.threads = threads;
+  }
 
   /**
    * Determines where the current player should play their next piece. Some
@@ -34,91 +154,501 @@ public class Reversi implements Strategy {
    */
   @Override
   public Square chooseSquare(Board board) {
+    long start = System.nanoTime();
+    long margin = Math.max(TimeUnit.MILLISECONDS.toNanos(SAFETY_MARGIN), timeoutNanos / 20);
+    return choose(board, start, Math.max(0, timeoutNanos - margin), null);
+  }
 
-    start = System.currentTimeMillis();
+  /**
+   * Like {@link #chooseSquare(Board)}, but with the time left until the given
+   * deadline instead of the timeout given to the constructor, and without a
+   * safety margin: the move of every completed iteration is published, for the
+   * game to play should the deadline pass.
+   */
+  @Override
+  public Square chooseSquare(Board board, long deadline, BestMove bestMove) {
+    long start = System.nanoTime();
+    return choose(board, start, Math.max(0, deadline - start), bestMove);
+  }
 
-    Board initial;
-    int depth = 3;
-    int nodes = 20;
-    int alpha = 999, beta = 999;
-    boolean max = false;
-    Square optimal;
+  /**
+   * Utility method for choosing a square within the given time, halved in the
+   * opening. Intended only for internal use.
+   *
+   * @param bestMove
+   *          Where to publish moves as they are found, or null.
+   */
+  private Square choose(Board board, long start, long usable, BestMove bestMove) {
+    Map<Player, Integer> counts = board.getPlayerSquareCounts();
+    int empties = board.size() * board.size() - counts.get(Player.BLACK) - counts.get(Player.WHITE);
+    long budget = empties > OPENING_EMPTIES ? usable / 2 : usable;
+    Square square = null;
+    // After a ponder hit, the pondered entries belong to this search
+    if (!keepAge) {
+      table.newSearch();
+    }
+    keepAge = false;
+    nodes = 0;
+    probes = 0;
+    hits = 0;
+    cutoffs = 0;
+    probCutTries = 0;
+    probCuts = 0;
+    firstMoveCutoffs = 0;
+    completedDepth = 0;
+    solved = false;
+    researches = 0;
+    principalVariation = new ArrayList<>();
 
-    if (!board.getCurrentPossibleSquares().isEmpty())
-      initial = board;
-    else
-      initial = board.pass();
+    // Try to solve the endgame in the first half of the budget, and fall back
+    // to the regular search if that takes too long. A win, loss or draw result
+    // is enough, unless it is a loss that the regular search could drag out.
+    if (empties <= endgameEmpties) {
+      int move = solver.solve(board, start + budget / 2);
+      nodes += solver.getNodes();
+      completedDepth = solver.isExact() ? empties : 0;
+      solved = solver.isExact();
+      if (move != EndgameSolver.NO_MOVE && (solver.isExact() || solver.getScore() >= 0)) {
+        square = Square.of(move);
+        score = solver.getScore();
+        principalVariation.add(square);
+        if (bestMove != null) {
+          bestMove.publish(square);
+        }
+      }
+    }
 
-    Square[] possible = (Square[])board.getCurrentPossibleSquares().toArray();
+    // The next iteration takes several times longer than the last one, so do
+    // not start one after half of the remaining budget is spent
+    if (square == null) {
+      long remaining = start + budget - System.nanoTime();
+      square = search(board, empties, new Searcher.Limits(start + budget), System.nanoTime() + remaining / 2,
+          bestMove, false);
+    }
 
-    optimal = possible[new Random().nextInt(possible.length)];
+    elapsed = System.nanoTime() - start;
+    return square;
+  }
 
-    int score = prune(board.play(optimal), alpha, beta, depth, nodes--, !max);
+  /**
+   * @return The number of positions searched, the depth reached, the speed,
+   *         the transposition table hit rate, the share of cutoffs made by the
+   *         first move searched, the number of aspiration windows searched
+   *         again, the share of ProbCut attempts that cut a position off, the
+   *         score and length of the principal variation, and whether the
+   *         endgame was solved exactly (1) or not (0), for the most recent
+   *         search. With pondering on, also whether the opponent played the
+   *         expected reply, and the depth and positions searched while
+   *         pondering on it.
+   */
+  @Override
+  public Map<String, Number> getMoveCounters() {
+    Map<String, Number> counters = new LinkedHashMap<>();
+    counters.put("nodes", nodes);
+    counters.put("depth", completedDepth);
+    counters.put("nodesPerSecond", getNodesPerSecond());
+    counters.put("ttHitRate", probes == 0 ? 0 : (double) hits / probes);
+    counters.put("firstMoveCutoffRate", getFirstMoveCutoffRate());
+    counters.put("aspirationResearches", researches);
+    counters.put("probCutRate", probCutTries == 0 ? 0 : (double) probCuts / probCutTries);
+    counters.put("score", score);
+    counters.put("pvLength", principalVariation.size());
+    counters.put("solved", solved ? 1 : 0);
+    if (ponder) {
+      counters.put("ponderHit", ponderHit ? 1 : 0);
+      counters.put("ponderDepth", ponderDepth);
+      counters.put("ponderNodes", ponderNodes);
+    }
+    return counters;
+  }
 
-    for (int i = 0; i < possible.length; i++) {
-      if (alpha >= beta || board.isComplete()) break;
+  /**
+   * Sets how many empty squares there must be at most for the endgame to be
+   * solved exactly. Zero turns the endgame solver off.
+   *
+   * @param endgameEmpties
+   *          The number of empty squares. Each additional square makes solving
+   *          several times slower; see {@link EndgameSolver#main(String[])}.
+   */
+  public void setEndgameEmpties(int endgameEmpties) {
+    this.endgameEmpties = endgameEmpties;
+  }
 
-      if (TIME - (System.currentTimeMillis() - start) < TIME - 100)
-        return optimal;
+  /**
+   * Sets the evaluator for positions at the search horizon, for example one
+   * loaded with {@link PatternEvaluator#load(java.nio.file.Path)}. The default
+   * is {@link PatternEvaluator#getDefault()}. ProbCut parameters fitted with
+   * another evaluator are replaced by {@link ProbCut#forEvaluator}, which turns
+   * ProbCut off unless the default parameters were fitted with this one.
+   */
+  public void setEvaluator(PatternEvaluator evaluator) {
+    this.evaluator = evaluator;
+    if (probCut != null && !probCut.isFittedFor(evaluator)) {
+      probCut = ProbCut.forEvaluator(evaluator);
+    }
+    table.clear();
+  }
 
-      if (max)
-        alpha = Math.max(alpha, score);
-      else
-        beta = Math.min(beta, score);
+  /**
+   * Turns the killer, history and mobility move ordering on or off; see
+   * {@link MoveOrdering}. It is on by default. The transposition table move is
+   * searched first either way.
+   */
+  public void setMoveOrdering(boolean moveOrdering) {
+    this.moveOrdering = moveOrdering;
+  }
 
-      int pre = prune(board.play(possible[i]), alpha, beta, depth, nodes--, !max);
+  /**
+   * Sets the parameters of the selective Multi-ProbCut search, such as
+   * {@link ProbCut#getDefault()} with a threshold of choice. The default is
+   * {@link ProbCut#forEvaluator} for the evaluator. Null turns it off, so that
+   * every position is searched in full. The endgame solver is always exact.
+   *
+   * @throws IllegalArgumentException
+   *           If the parameters were fitted with another evaluator.
+   */
+  public void setProbCut(ProbCut probCut) {
+    if (probCut != null && !probCut.isFittedFor(evaluator)) {
+      throw new IllegalArgumentException("the ProbCut parameters were fitted with another evaluator");
+    }
+    this.probCut = probCut;
+  }
 
-      if (max) {
-        if (pre > score) {
-          score = pre;
-          optimal = possible[i];
-        }
-        alpha = Math.max(alpha, score);
-      } else {
-        if (pre < score) {
-          score = pre;
-          optimal = possible[i];
+  /**
+   * Turns pondering on or off. It is off by default, since it uses a thread
+   * while the opponent's strategy may need it.
+   */
+  public void setPondering(boolean ponder) {
+    this.ponder = ponder;
+    if (!ponder) {
+      stopPondering();
+    }
+  }
+
+  /**
+   * Starts pondering on the position after the opponent's expected reply, as
+   * stored in the transposition table by the last search, or on the opponent's
+   * position if there is no expected reply. Does not ponder positions that the
+   * endgame solver will take over.
+   */
+  @Override
+  public void opponentThinking(Board board) {
+    stopPondering();
+    ponderBoard = null;
+    ponderHit = false;
+    keepAge = false;
+    ponderNodes = 0;
+    ponderDepth = 0;
+    if (!ponder) {
+      return;
+    }
+
+    Board target = board;
+    long entry = table.probe(board.getZobristKey());
+    if (entry != TranspositionTable.MISS && TranspositionTable.move(entry) != TranspositionTable.NO_MOVE) {
+      Square reply = Square.of(TranspositionTable.move(entry));
+      if (board.getCurrentPossibleSquares().contains(reply)) {
+        Board next = board.play(reply);
+        if (next.hasCurrentPossibleSquares()) {
+          target = next;
+          ponderBoard = next;
         }
-        beta = Math.min(beta, score);
       }
     }
+    Map<Player, Integer> counts = target.getPlayerSquareCounts();
+    final int empties = target.size() * target.size() - counts.get(Player.BLACK) - counts.get(Player.WHITE);
+    if (empties <= endgameEmpties) {
+      ponderBoard = null;
+      return;
+    }
 
-    return optimal;
+    final Board position = target;
+    final Searcher.Limits limits = new Searcher.Limits(Long.MAX_VALUE);
+    ponderLimits = limits;
+    // Entries stored while pondering count as part of the next search
+    table.newSearch();
+    ponderSearch = ponderer().submit(new Runnable() {
+      @Override
+      public void run() {
+        search(position, empties, limits, Long.MAX_VALUE, null, true);
+      }
+    });
   }
 
-  private int prune(Board board, int alpha, int beta, int depth, int nodes, boolean max) {
+  /**
+   * Stops pondering, and notes whether the opponent played the expected reply.
+   */
+  @Override
+  public void opponentMoved(Board board) {
+    if (ponderSearch == null) {
+      return;
+    }
+    stopPondering();
+    ponderHit = ponderBoard != null && ponderBoard.getZobristKey() == board.getZobristKey()
+        && ponderBoard.equals(board);
+    keepAge = ponderHit;
+  }
 
-    if (board.isComplete())
-      return Math.abs(board.getPlayerSquareCounts().get(board.getCurrentPlayer())) - board.getPlayerSquareCounts().get(board.getCurrentPlayer().opponent());
+  /**
+   * Stops pondering and the pondering thread, which the next game starts
+   * again if it ponders.
+   */
+  @Override
+  public void gameOver(Board board) {
+    stopPondering();
+    stopPonderer();
+  }
 
-    if (nodes <= 0) {
-      nodeEnd++;
-      return Math.abs(board.getPlayerSquareCounts().get(board.getCurrentPlayer()) - board.getPlayerSquareCounts().get(board.getCurrentPlayer().opponent()));
+  /**
+   * Utility method for stopping the ponder search, if any, and waiting for it
+   * to finish.
+   */
+  private void stopPondering() {
+    if (ponderSearch == null) {
+      return;
+    }
+    ponderLimits.stopped = true;
+    try {
+      ponderSearch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("pondering failed", e.getCause());
+    } finally {
+      ponderSearch = null;
     }
+  }
+
+  /**
+   * @return The depth of the last iteration completed by the most recent
+   *         search.
+   */
+  public int getCompletedDepth() {
+    return completedDepth;
+  }
+
+  /**
+   * @return The number of positions visited by all threads in the most recent
+   *         search.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @return The score of the most recent search, in discs for the player who
+   *         was to move: an estimate from the last completed iteration, or the
+   *         exact result if the endgame was solved.
+   */
+  public int getScore() {
+    return score;
+  }
+
+  /**
+   * @return The moves that the most recent search expects both players to
+   *         play from the searched position, starting with the chosen one. A
+   *         pass appears as {@link Square#PASS}. The line stops early where the
+   *         transposition table cut the search short, and after the first
+   *         move when the endgame solver chose it.
+   */
+  public List<Square> getPrincipalVariation() {
+    return principalVariation;
+  }
 
-    depth--;
+  /**
+   * @return The share of the positions that failed high in the most recent
+   *         search where the first move searched caused the cutoff.
+   */
+  public double getFirstMoveCutoffRate() {
+    return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+  }
 
-    Square[] possible = (Square[])board.getCurrentPossibleSquares().toArray();
+  /**
+   * @return The number of positions visited per second in the most recent
+   *         search.
+   */
+  public double getNodesPerSecond() {
+    return elapsed == 0 ? 0 : nodes * 1e9 / elapsed;
+  }
 
-    if (possible.length == 0)
-      return prune(board.pass(), alpha, beta, depth, nodes--, !max);
+  /**
+   * Searches the board on every thread until the main searcher completes the
+   * maximum depth or passes the soft deadline, or until the hard deadline.
+   * Intended only for use within this package.
+   */
+  Square search(Board board, int maxDepth, long deadline, long softDeadline) {
+    table.newSearch();
+    return search(board, maxDepth, new Searcher.Limits(deadline), softDeadline, null, false);
+  }
 
-    int opt = max ? -999 : 999;
+  /**
+   * Like {@link #search(Board, int, long, long)}, but under the given limits,
+   * which may be stopped from another thread, and within the current search of
+   * the transposition table, which the caller starts.
+   *
+   * @param bestMove
+   *          Where the main searcher publishes the move of every completed
+   *          iteration, or null.
+   * @param pondering
+   *          Whether this is a ponder search, which only records its depth and
+   *          positions searched, so that the results of the last move are kept.
+   * @return The square to play, or null after pondering.
+   */
+  private Square search(Board board, int maxDepth, Searcher.Limits limits, long softDeadline, BestMove bestMove,
+      boolean pondering) {
+    Searcher main = new Searcher(board, table, limits, evaluator, 0);
+    main.setMoveOrdering(moveOrdering);
+    main.setProbCut(probCut);
+    main.publishTo(bestMove);
+    List<Searcher> searchers = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    searchers.add(main);
 
-    for (int i = 0; i < possible.length; i++) {
-      if (alpha >= beta) break;
+    for (int id = 1; id < threads; id++) {
+      final Searcher helper = new Searcher(board, table, limits, evaluator, id);
+      helper.setMoveOrdering(moveOrdering);
+      helper.setProbCut(probCut);
+      // Half of the helpers run one iteration ahead of the main searcher
+      final int firstDepth = 1 + id % 2;
+      searchers.add(helper);
+      futures.add(helpers().submit(new Runnable() {
+        @Override
+        public void run() {
+          helper.iterate(firstDepth, maxDepth, Long.MAX_VALUE);
+        }
+      }));
+    }
 
-      int pre = prune(board.play(possible[i]), alpha, beta, depth, nodes--, !max);
+    main.iterate(1, maxDepth, softDeadline);
+    limits.stopped = true;
 
-      if (max) {
-        opt = Math.max(opt, pre);
-        alpha = Math.max(alpha, pre);
-      } else {
-        opt = Math.min(opt, pre);
-        beta = Math.min(beta, pre);
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("search thread failed", e.getCause());
       }
     }
 
-    return opt;
+    // Play the move of whichever searcher got deepest, preferring the main one
+    Searcher deepest = main;
+    for (Searcher searcher : searchers) {
+      if (searcher.getCompletedDepth() > deepest.getCompletedDepth()) {
+        deepest = searcher;
+      }
+    }
+    if (pondering) {
+      for (Searcher searcher : searchers) {
+        ponderNodes += searcher.getNodes();
+      }
+      ponderDepth = deepest.getCompletedDepth();
+      return null;
+    }
+
+    for (Searcher searcher : searchers) {
+      nodes += searcher.getNodes();
+      probes += searcher.getProbes();
+      hits += searcher.getHits();
+      cutoffs += searcher.getCutoffs();
+      firstMoveCutoffs += searcher.getFirstMoveCutoffs();
+      probCutTries += searcher.getProbCutTries();
+      probCuts += searcher.getProbCuts();
+    }
+    completedDepth = deepest.getCompletedDepth();
+    score = deepest.getScore();
+    researches = main.getResearches();
+    principalVariation = new ArrayList<>();
+    for (int move : deepest.getPrincipalVariation()) {
+      principalVariation.add(move == SearchBoard.PASS ? Square.PASS : Square.of(move));
+    }
+
+    int optimal = deepest.getBestMove();
+    return Square.of(optimal);
+  }
+
+  /**
+   * Forgets every search result, so that the next search starts from scratch.
+   * Intended only for use within this package.
+   */
+  void clear() {
+    table.clear();
+  }
+
+  /**
+   * Utility method for lazily starting the pondering thread, a daemon thread
+   * like the helpers.
+   *
+   * @throws IllegalStateException
+   *           If the strategy has been closed.
+   */
+  private synchronized ExecutorService ponderer() {
+    if (closed) {
+      throw new IllegalStateException("the strategy has been closed");
+    }
+    if (ponderer == null) {
+      ponderer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "reversi-ponder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return ponderer;
+  }
+
+  /**
+   * Utility method for shutting down the pondering thread, if it was started.
+   * Intended only for internal use.
+   */
+  private synchronized void stopPonderer() {
+    if (ponderer != null) {
+      ponderer.shutdown();
+      ponderer = null;
+    }
+  }
+
+  /**
+   * Stops the helper and pondering threads. A search that is still running
+   * finishes on its own thread alone, and the strategy must not be used
+   * afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (ponderLimits != null) {
+      ponderLimits.stopped = true;
+    }
+    stopPonderer();
+    if (helpers != null) {
+      helpers.shutdown();
+    }
+  }
+
+  /**
+   * Utility method for lazily starting the helper threads. They are daemon
+   * threads, so an unused strategy does not keep the program running.
+   *
+   * @throws IllegalStateException
+   *           If the strategy has been closed.
+   */
+  private synchronized ExecutorService helpers() {
+    if (closed) {
+      throw new IllegalStateException("the strategy has been closed");
+    }
+    if (helpers == null) {
+      helpers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "reversi-search-helper");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return helpers;
   }
 }
@@ -0,0 +1,470 @@
+package strategy;
+
+import java.util.Arrays;
+
+import reversi.BestMove;
+import reversi.Bitboards;
+import reversi.Board;
+import reversi.Player;
+import reversi.SearchBoard;
+import reversi.Square;
+
+/**
+ * One thread of the {@link Reversi} search. Each searcher deepens iteratively
+ * on its own {@link SearchBoard}, and all of them share one transposition
+ * table, so that results found by one thread save work for the others (Lazy
+ * SMP). Positions at the search horizon are scored by a
+ * {@link PatternEvaluator}, whose pattern numbers are updated along with every
+ * move. Each searcher orders its moves with a {@link MoveOrdering} of its own.
+ * <p>
+ * The search is a principal variation search: the first move of every
+ * position is searched with the full window, and the rest with a null window
+ * that only proves them worse, searched again in full if they turn out better.
+ * Each iteration after the first starts with an aspiration window around the
+ * score of the last one, widened whenever the score falls outside it. With a
+ * {@link ProbCut}, null-window positions are first tried with a shallow search
+ * and cut off if it predicts the deep result with enough confidence.
+ */
+class Searcher {
+
+  static final int INFINITY = 999;
+
+  /**
+   * How many nodes are searched between checks of the clock.
+   */
+  private static final int CHECK_INTERVAL = 1024;
+
+  /**
+   * The half-width of the first aspiration window, in discs. It grows fourfold
+   * on every failure.
+   */
+  private static final int ASPIRATION_WINDOW = 2;
+
+  /**
+   * The limits shared by every searcher working on the same position.
+   */
+  static class Limits {
+    final long deadline;
+    volatile boolean stopped;
+
+    Limits(long deadline) {
+      this.deadline = deadline;
+    }
+  }
+
+  private final TranspositionTable table;
+  private final Limits limits;
+  private final SearchBoard board;
+  private final PatternEvaluator.State patterns;
+  private final MoveOrdering ordering = new MoveOrdering();
+  private final int[][] moveLists = new int[SearchBoard.MAX_PLIES + 1][Bitboards.SQUARES];
+  // The principal variation found below each ply, as a triangular table
+  private final int[][] pv = new int[SearchBoard.MAX_PLIES + 1][SearchBoard.MAX_PLIES + 1];
+  private final int[] pvLength = new int[SearchBoard.MAX_PLIES + 1];
+  private final int id;
+
+  private boolean aborted;
+  private long nodes, probes, hits;
+  private long cutoffs, firstMoveCutoffs;
+  private long researches;
+  private ProbCut probCut;
+  private long probCutTries, probCuts;
+  private int completedDepth;
+  private int bestMove;
+  private int score, rootScore;
+  private int[] principalVariation = new int[0];
+  private BestMove published;
+
+  /**
+   * @param id
+   *          Zero for the main searcher, which stops the others when it is done.
+   *          Helpers vary their root move order by their id.
+   */
+  Searcher(Board board, TranspositionTable table, Limits limits, PatternEvaluator evaluator, int id) {
+    this.board = new SearchBoard(board);
+    this.patterns = new PatternEvaluator.State(evaluator, this.board);
+    this.table = table;
+    this.limits = limits;
+    this.id = id;
+  }
+
+  /**
+   * Publishes the best move so far whenever it changes: first any legal move,
+   * then the move of every completed iteration.
+   *
+   * @param published
+   *          Where to publish, or null for nowhere.
+   */
+  void publishTo(BestMove published) {
+    this.published = published;
+  }
+
+  /**
+   * Turns the killer, history and mobility ordering on or off. It is on by
+   * default.
+   */
+  void setMoveOrdering(boolean enabled) {
+    ordering.setEnabled(enabled);
+  }
+
+  /**
+   * Cuts off positions selectively by Multi-ProbCut with the given parameters,
+   * or searches every position in full if null, the default.
+   */
+  void setProbCut(ProbCut probCut) {
+    this.probCut = probCut;
+  }
+
+  /**
+   * Deepens iteratively from the given depth until the maximum depth, the soft
+   * deadline or the shared limits stop the search.
+   */
+  void iterate(int firstDepth, int maxDepth, long softDeadline) {
+    long possible = board.getPossibleMoves();
+    // Any legal move will do until the first iteration completes; helpers each
+    // start from a different one
+    bestMove = nthMove(possible, id % Long.bitCount(possible));
+    if (published != null) published.publish(Square.of(bestMove));
+
+    for (int depth = firstDepth; depth <= maxDepth; depth++) {
+      int move = aspirate(depth, bestMove);
+      if (aborted) break;
+
+      bestMove = move;
+      completedDepth = depth;
+      score = rootScore;
+      principalVariation = Arrays.copyOf(pv[0], pvLength[0]);
+      if (published != null) published.publish(Square.of(bestMove));
+
+      if (System.nanoTime() > softDeadline) break;
+    }
+  }
+
+  int getBestMove() {
+    return bestMove;
+  }
+
+  int getCompletedDepth() {
+    return completedDepth;
+  }
+
+  /**
+   * @return The score of the last completed iteration, in discs for the player
+   *         to move.
+   */
+  int getScore() {
+    return score;
+  }
+
+  /**
+   * @return The moves expected from the root by the last completed iteration,
+   *         as bitboard indices or {@link SearchBoard#PASS}. It ends early where
+   *         the transposition table cut the search short.
+   */
+  int[] getPrincipalVariation() {
+    return principalVariation;
+  }
+
+  /**
+   * @return The number of times a root search fell outside its aspiration
+   *         window and was searched again.
+   */
+  long getResearches() {
+    return researches;
+  }
+
+  /**
+   * @return The number of positions that ProbCut tried to cut off.
+   */
+  long getProbCutTries() {
+    return probCutTries;
+  }
+
+  /**
+   * @return The number of positions that ProbCut cut off.
+   */
+  long getProbCuts() {
+    return probCuts;
+  }
+
+  long getNodes() {
+    return nodes;
+  }
+
+  long getProbes() {
+    return probes;
+  }
+
+  long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return The number of positions where a move failed high.
+   */
+  long getCutoffs() {
+    return cutoffs;
+  }
+
+  /**
+   * @return The number of positions where the first move searched failed high.
+   */
+  long getFirstMoveCutoffs() {
+    return firstMoveCutoffs;
+  }
+
+  /**
+   * Utility method for picking the n-th lowest set bit of a bitboard.
+   */
+  private static int nthMove(long moves, int n) {
+    for (int i = 0; i < n; i++) {
+      moves &= moves - 1;
+    }
+    return Long.numberOfTrailingZeros(moves);
+  }
+
+  /**
+   * Utility method for making a move on both the board and the patterns.
+   *
+   * @return The discs captured, to pass to {@link #undoMove(int, long)}.
+   */
+  private long makeMove(int move) {
+    Player mover = board.getCurrentPlayer();
+    long flips = board.makeMove(move);
+    patterns.play(mover, move, flips);
+    return flips;
+  }
+
+  /**
+   * Utility method for unmaking the move made by {@link #makeMove(int)}.
+   */
+  private void undoMove(int move, long flips) {
+    board.undoMove();
+    patterns.undo(board.getCurrentPlayer(), move, flips);
+  }
+
+  /**
+   * Searches the root to the given depth within an aspiration window around
+   * the score of the last completed iteration, widening the window on the side
+   * where the score falls outside it until the score lands within it. The
+   * first iteration uses the full window.
+   *
+   * @return The bitboard index of the best move. Meaningless if the search was
+   *         aborted.
+   */
+  private int aspirate(int depth, int first) {
+    int window = ASPIRATION_WINDOW;
+    int alpha = completedDepth > 0 ? Math.max(-INFINITY, score - window) : -INFINITY;
+    int beta = completedDepth > 0 ? Math.min(INFINITY, score + window) : INFINITY;
+    while (true) {
+      int move = searchRoot(depth, first, alpha, beta);
+      if (aborted) return move;
+
+      window *= 4;
+      if (rootScore <= alpha && alpha > -INFINITY) {
+        alpha = Math.max(-INFINITY, rootScore - window);
+      } else if (rootScore >= beta && beta < INFINITY) {
+        // The move that failed high is worth searching first next time
+        beta = Math.min(INFINITY, rootScore + window);
+        first = move;
+      } else {
+        return move;
+      }
+      ++researches;
+    }
+  }
+
+  /**
+   * Searches every move from the root to the given depth within the window,
+   * starting with the given move. Helpers rotate the order of the other moves
+   * by their id, so that they spread out over the root moves.
+   *
+   * @return The bitboard index of the best move, with its score left in
+   *         {@link #rootScore}. Meaningless if the search was aborted.
+   */
+  private int searchRoot(int depth, int first, int alpha, int beta) {
+    int[] moves = moveLists[0];
+    int count = ordering.order(board.getPlayerDiscs(), board.getOpponentDiscs(), board.getPossibleMoves(), first,
+        0, depth, moves);
+    int original = alpha;
+    int opt = -INFINITY;
+    int optimal = first;
+    pvLength[0] = 0;
+
+    for (int i = 0; i < count; i++) {
+      int move = i == 0 ? moves[0] : moves[1 + (i - 1 + id) % (count - 1)];
+      long flips = makeMove(move);
+      int pre = scout(alpha, beta, depth - 1, i == 0);
+      undoMove(move, flips);
+      if (aborted) return optimal;
+
+      if (pre > opt) {
+        opt = pre;
+        optimal = move;
+      }
+      if (pre > alpha) {
+        alpha = pre;
+        updatePv(0, move);
+      }
+      if (alpha >= beta) break;
+    }
+
+    rootScore = opt;
+    int bound = opt <= original ? TranspositionTable.UPPER
+        : opt >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+    table.store(board.getKey(), depth, opt, bound, optimal);
+    return optimal;
+  }
+
+  /**
+   * Utility method for trying to cut off a null-window position by shallow
+   * searches, cheapest first, each against the window moved out by the ProbCut
+   * threshold, first above beta and then below alpha.
+   *
+   * @return 1 if the position fails high, -1 if it fails low, and 0 if it must
+   *         be searched in full.
+   */
+  private int probCut(int alpha, int beta, int depth, int checks) {
+    int empties = board.getEmptyCount();
+    ++probCutTries;
+    for (int check = 0; check < checks && !aborted; check++) {
+      int shallow = probCut.shallow(empties, depth, check);
+      int bound = probCut.upperCut(empties, depth, check, beta);
+      if (bound < INFINITY && prune(bound - 1, bound, shallow) >= bound && !aborted) {
+        ++probCuts;
+        return 1;
+      }
+      bound = probCut.lowerCut(empties, depth, check, alpha);
+      if (bound > -INFINITY && prune(bound, bound + 1, shallow) <= bound && !aborted) {
+        ++probCuts;
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Utility method for searching the move just made: in full if it is the first
+   * one, otherwise with a null window, and again in full if it beats alpha
+   * without reaching beta.
+   *
+   * @return The score of the move for the player who made it.
+   */
+  private int scout(int alpha, int beta, int depth, boolean first) {
+    if (first) {
+      return -prune(-beta, -alpha, depth);
+    }
+    int pre = -prune(-alpha - 1, -alpha, depth);
+    if (pre > alpha && pre < beta && !aborted) {
+      pre = -prune(-beta, -alpha, depth);
+    }
+    return pre;
+  }
+
+  /**
+   * Utility method for making the given move followed by the principal
+   * variation found below it the principal variation at the given ply.
+   */
+  private void updatePv(int ply, int move) {
+    pv[ply][ply] = move;
+    int length = Math.max(pvLength[ply + 1], ply + 1);
+    System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, length - ply - 1);
+    pvLength[ply] = length;
+  }
+
+  /**
+   * Principal variation search in negamax form: scores are always from the
+   * point of view of the player to move, so a child's score is negated for its
+   * parent.
+   * Results are kept in the transposition table, and the best move stored for
+   * a position is searched first when the position comes up again, followed by
+   * the rest in the order given by the {@link MoveOrdering}.
+   */
+  private int prune(int alpha, int beta, int depth) {
+    int ply = board.getPly();
+    pvLength[ply] = ply;
+
+    if (limits.stopped || (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > limits.deadline))
+      aborted = true;
+    if (aborted)
+      return 0;
+
+    if (board.isComplete())
+      return board.getDiscDifference();
+    if (depth <= 0)
+      return patterns.evaluate();
+
+    long key = board.getKey();
+    long entry = table.probe(key);
+    int hashMove = TranspositionTable.NO_MOVE;
+
+    ++probes;
+    if (entry != TranspositionTable.MISS) {
+      ++hits;
+      hashMove = TranspositionTable.move(entry);
+      if (TranspositionTable.depth(entry) >= depth) {
+        int score = TranspositionTable.score(entry);
+        int bound = TranspositionTable.bound(entry);
+        if (bound == TranspositionTable.EXACT
+            || (bound == TranspositionTable.LOWER && score >= beta)
+            || (bound == TranspositionTable.UPPER && score <= alpha))
+          return score;
+      }
+    }
+
+    long possible = board.getPossibleMoves();
+
+    if (possible == 0) {
+      board.makePass();
+      int pre = -prune(-beta, -alpha, depth - 1);
+      board.undoMove();
+      updatePv(ply, SearchBoard.PASS);
+      return pre;
+    }
+
+    int checks = probCut != null && beta == alpha + 1 ? probCut.checks(board.getEmptyCount(), depth) : 0;
+    if (checks != 0) {
+      int cut = probCut(alpha, beta, depth, checks);
+      pvLength[ply] = ply;
+      if (aborted) return 0;
+      if (cut != 0) return cut > 0 ? beta : alpha;
+    }
+
+    int original = alpha;
+    int opt = -INFINITY;
+    int optMove = TranspositionTable.NO_MOVE;
+    int[] moves = moveLists[ply];
+    int count = ordering.order(board.getPlayerDiscs(), board.getOpponentDiscs(), possible, hashMove, ply, depth,
+        moves);
+
+    for (int i = 0; i < count; i++) {
+      int move = moves[i];
+      long flips = makeMove(move);
+      int pre = scout(alpha, beta, depth - 1, i == 0);
+      undoMove(move, flips);
+      if (aborted) return 0;
+
+      if (pre > opt) {
+        opt = pre;
+        optMove = move;
+      }
+      if (pre > alpha) {
+        alpha = pre;
+        updatePv(ply, move);
+      }
+
+      if (alpha >= beta) {
+        ++cutoffs;
+        if (i == 0) ++firstMoveCutoffs;
+        ordering.cutoff(move, ply, depth);
+        break;
+      }
+    }
+
+    int bound = opt <= original ? TranspositionTable.UPPER
+        : opt >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+    table.store(key, depth, opt, bound, optMove);
+
+    return opt;
+  }
+}
@@ -0,0 +1,185 @@
+package strategy;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size table of search results keyed by Zobrist key, so that a
+ * position reached through different move orders is searched only once.
+ * Entries live in two primitive arrays and are grouped in buckets of two. When
+ * a bucket is full, the entry from an older search or, failing that, the
+ * shallower entry is replaced.
+ * <p>
+ * Each entry packs its score, depth, bound type, best move and age into one
+ * {@code long}, decoded with the static accessors below.
+ * <p>
+ * The table may be shared by several searching threads without locking. The
+ * key is stored exclusive-or'ed with its entry, so an entry torn by two
+ * threads writing the same slot at once no longer matches its key and reads as
+ * a miss.
+ */
+public class TranspositionTable {
+
+  /**
+   * Returned by {@link #probe(long)} when the position is not in the table.
+   */
+  public static final long MISS = 0;
+
+  /**
+   * The score is an upper bound: the search failed low.
+   */
+  public static final int UPPER = 1;
+  /**
+   * The score is a lower bound: the search failed high.
+   */
+  public static final int LOWER = 2;
+  /**
+   * The score is exact.
+   */
+  public static final int EXACT = 3;
+
+  /**
+   * Stored in place of the best move when there is none, e.g. for a pass.
+   */
+  public static final int NO_MOVE = -1;
+
+  // Bit layout of an entry
+  private static final int SCORE_BITS = 16, DEPTH_SHIFT = 16, BOUND_SHIFT = 24, MOVE_SHIFT = 26,
+      AGE_SHIFT = 33;
+  private static final long SCORE_MASK = (1L << SCORE_BITS) - 1;
+
+  private final long[] keys;
+  private final long[] entries;
+  private final int mask;
+  private volatile int age;
+
+  /**
+   * Creates an empty table.
+   *
+   * @param bits
+   *          The base-2 logarithm of the number of entries. Each entry takes 16
+   *          bytes.
+   */
+  public TranspositionTable(int bits) {
+    if (bits < 1 || bits > 30) {
+      throw new IllegalArgumentException("table size must be between 2^1 and 2^30 entries, not 2^" + bits);
+    }
+    this.keys = new long[1 << bits];
+    this.entries = new long[1 << bits];
+    this.mask = (1 << bits) - 2;
+  }
+
+  /**
+   * Starts a new search. Entries from earlier searches stay usable, but are the
+   * first to be replaced.
+   */
+  public void newSearch() {
+    this.age = (this.age + 1) & 0xFF;
+  }
+
+  /**
+   * Removes every entry.
+   */
+  public void clear() {
+    Arrays.fill(this.keys, 0);
+    Arrays.fill(this.entries, 0);
+  }
+
+  /**
+   * @param key
+   *          The Zobrist key of a position.
+   * @return The entry for the position, or {@link #MISS}.
+   */
+  public long probe(long key) {
+    int bucket = (int) key & this.mask;
+    for (int i = bucket; i < bucket + 2; ++i) {
+      long entry = this.entries[i];
+      if ((this.keys[i] ^ entry) == key && entry != MISS) {
+        return entry;
+      }
+    }
+    return MISS;
+  }
+
+  /**
+   * Records the result of searching a position.
+   *
+   * @param key
+   *          The Zobrist key of the position.
+   * @param depth
+   *          The depth the position was searched to.
+   * @param score
+   *          The score from the point of view of the player to move.
+   * @param bound
+   *          One of {@link #UPPER}, {@link #LOWER} or {@link #EXACT}.
+   * @param move
+   *          The bitboard index of the best move, or {@link #NO_MOVE}.
+   */
+  public void store(long key, int depth, int score, int bound, int move) {
+    int bucket = (int) key & this.mask;
+    int slot = bucket;
+    if ((this.keys[bucket + 1] ^ this.entries[bucket + 1]) == key) {
+      slot = bucket + 1;
+    } else if ((this.keys[bucket] ^ this.entries[bucket]) != key
+        && this.priority(bucket + 1) < this.priority(bucket)) {
+      slot = bucket + 1;
+    }
+    long entry = (score & SCORE_MASK)
+        | (long) Math.min(depth, 0xFF) << DEPTH_SHIFT
+        | (long) bound << BOUND_SHIFT
+        | (long) (move + 1) << MOVE_SHIFT
+        | (long) this.age << AGE_SHIFT;
+    this.keys[slot] = key ^ entry;
+    this.entries[slot] = entry;
+  }
+
+  /**
+   * Utility method for ranking which entry of a bucket to keep. Empty entries and
+   * entries from earlier searches rank lowest, then shallower ones. Intended only
+   * for internal use.
+   */
+  private int priority(int slot) {
+    long entry = this.entries[slot];
+    if (entry == MISS) {
+      return -1;
+    }
+    int current = age(entry) == this.age ? 0x100 : 0;
+    return current + depth(entry);
+  }
+
+  /**
+   * @return The score of an entry, from the point of view of the player to move.
+   */
+  public static int score(long entry) {
+    return (short) (entry & SCORE_MASK);
+  }
+
+  /**
+   * @return The depth an entry was searched to.
+   */
+  public static int depth(long entry) {
+    return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+  }
+
+  /**
+   * @return The bound type of an entry.
+   */
+  public static int bound(long entry) {
+    return (int) (entry >>> BOUND_SHIFT) & 0x3;
+  }
+
+  /**
+   * @return The bitboard index of the best move of an entry, or
+   *         {@link #NO_MOVE}.
+   */
+  public static int move(long entry) {
+    return (int) ((entry >>> MOVE_SHIFT) & 0x7F) - 1;
+  }
+
+  /**
+   * Utility method for decoding the age of an entry. Intended only for internal
+   * use.
+   */
+  private static int age(long entry) {
+    return (int) (entry >>> AGE_SHIFT) & 0xFF;
+  }
+}
@@ -0,0 +1,357 @@
+package strategy;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import reversi.LabelledPosition;
+import reversi.PositionReader;
+import reversi.SelfPlay;
+
+/**
+ * Fits the weights of a {@link PatternEvaluator} to labelled positions, such as
+ * those written by {@link SelfPlay}, by mini-batch gradient descent on the
+ * squared error between evaluation and final disc difference.
+ * <p>
+ * Each epoch streams the positions from disk in batches, so datasets need not
+ * fit in memory. The positions of a batch are split between worker threads,
+ * which each add up the error of every weight their positions use in their own
+ * primitive arrays. Between batches, every weight used moves against its mean
+ * error, scaled by the learning rate. Every n-th position is held out of
+ * training to measure how well the weights generalize.
+ * <p>
+ * Not thread-safe.
+ */
+public class WeightTuner {
+
+  /**
+   * The number of positions per batch.
+   */
+  private static final int BATCH = 1 << 16;
+
+  private final int phases;
+  private final int threads;
+  private final float[] weights; // In discs, FEATURES per phase
+  private final float[] biases;
+  private double learningRate = 0.05;
+  private int holdout = 20;
+
+  // The positions of the current batch, and the sums of the workers' errors
+  private final long[] players = new long[BATCH];
+  private final long[] opponents = new long[BATCH];
+  private final byte[] labels = new byte[BATCH];
+  private final float[] errors;
+  private final int[] counts;
+  private final int[] touched;
+  private final List<Worker> workers = new ArrayList<>();
+
+  /**
+   * The statistics of one pass over a dataset.
+   */
+  public static class Epoch {
+    long trained, validated;
+    double trainingSquaredError, trainingAbsoluteError, validationSquaredError;
+    long nanos;
+
+    /**
+     * @return The root mean squared error of the training positions, in discs,
+     *         measured before each batch updated the weights.
+     */
+    public double getTrainingError() {
+      return this.trained == 0 ? 0 : Math.sqrt(this.trainingSquaredError / this.trained);
+    }
+
+    /**
+     * @return The mean absolute error of the training positions, in discs.
+     */
+    public double getTrainingAbsoluteError() {
+      return this.trained == 0 ? 0 : this.trainingAbsoluteError / this.trained;
+    }
+
+    /**
+     * @return The root mean squared error of the held out positions, in discs.
+     */
+    public double getValidationError() {
+      return this.validated == 0 ? 0 : Math.sqrt(this.validationSquaredError / this.validated);
+    }
+
+    /**
+     * @return The number of positions read per second.
+     */
+    public double getPositionsPerSecond() {
+      return this.nanos == 0 ? 0 : (this.trained + this.validated) * 1e9 / this.nanos;
+    }
+  }
+
+  /**
+   * Creates a tuner that starts from the weights of the given evaluator.
+   *
+   * @param start
+   *          The evaluator with the initial weights and number of phases.
+   * @param threads
+   *          The number of threads to compute errors with.
+   */
+  public WeightTuner(PatternEvaluator start, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one thread is needed, not " + threads);
+    }
+    this.phases = start.getPhases();
+    this.threads = threads;
+    this.weights = new float[this.phases * PatternEvaluator.FEATURES];
+    this.biases = new float[this.phases];
+    for (int phase = 0; phase < this.phases; ++phase) {
+      short[] phaseWeights = start.getWeights(phase);
+      for (int i = 0; i < PatternEvaluator.FEATURES; ++i) {
+        this.weights[phase * PatternEvaluator.FEATURES + i] = (float) phaseWeights[i] / PatternEvaluator.SCALE;
+      }
+      this.biases[phase] = (float) start.getBias(phase) / PatternEvaluator.SCALE;
+    }
+    this.errors = new float[this.weights.length];
+    this.counts = new int[this.weights.length];
+    this.touched = new int[this.weights.length];
+    for (int i = 0; i < threads; ++i) {
+      this.workers.add(new Worker());
+    }
+  }
+
+  /**
+   * @param learningRate
+   *          The share of its mean error that each weight moves by per batch.
+   */
+  public void setLearningRate(double learningRate) {
+    this.learningRate = learningRate;
+  }
+
+  /**
+   * @param holdout
+   *          Holds out one position in this many for validation, or none if 0.
+   */
+  public void setHoldout(int holdout) {
+    this.holdout = holdout;
+  }
+
+  /**
+   * Adds up the errors of a range of positions of the current batch.
+   */
+  private class Worker implements Callable<Void> {
+    final float[] errors = new float[weights.length];
+    final int[] counts = new int[weights.length];
+    final float[] biasErrors = new float[phases];
+    final int[] biasCounts = new int[phases];
+    final int[] indices = new int[PatternEvaluator.instanceCount()];
+    int[] touched = new int[BATCH];
+    int touchedCount;
+    int from, to;
+    long first; // The number of the batch's first position in the dataset
+    final Epoch epoch = new Epoch();
+
+    @Override
+    public Void call() {
+      int instances = indices.length;
+      for (int i = from; i < to; ++i) {
+        int empties = Long.bitCount(~(players[i] | opponents[i]));
+        int phase = PatternEvaluator.phase(empties, phases);
+        int base = phase * PatternEvaluator.FEATURES;
+        PatternEvaluator.indices(players[i], opponents[i], indices);
+        for (int j = 0; j < instances; ++j) {
+          indices[j] += base + PatternEvaluator.instanceOffset(j);
+        }
+        float prediction = biases[phase];
+        for (int j = 0; j < instances; ++j) {
+          prediction += weights[indices[j]];
+        }
+        float error = prediction - labels[i];
+
+        if (holdout > 0 && (first + i) % holdout == 0) {
+          ++epoch.validated;
+          epoch.validationSquaredError += error * error;
+          continue;
+        }
+        ++epoch.trained;
+        epoch.trainingSquaredError += error * error;
+        epoch.trainingAbsoluteError += Math.abs(error);
+        for (int j = 0; j < instances; ++j) {
+          int feature = indices[j];
+          if (counts[feature]++ == 0) {
+            if (touchedCount == touched.length) {
+              touched = Arrays.copyOf(touched, 2 * touched.length);
+            }
+            touched[touchedCount++] = feature;
+          }
+          errors[feature] += error;
+        }
+        biasErrors[phase] += error;
+        ++biasCounts[phase];
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Makes one pass over a dataset, updating the weights after every batch.
+   *
+   * @param positions
+   *          A file written by {@link reversi.PositionWriter}.
+   */
+  public Epoch epoch(Path positions) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    long read = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    try (PositionReader reader = PositionReader.open(positions)) {
+      while (true) {
+        int size = 0;
+        for (LabelledPosition position; size < BATCH && (position = reader.read()) != null; ++size) {
+          this.players[size] = position.getPlayerDiscs();
+          this.opponents[size] = position.getOpponentDiscs();
+          this.labels[size] = (byte) position.getLabel();
+        }
+        if (size == 0) {
+          break;
+        }
+        for (int i = 0; i < this.threads; ++i) {
+          Worker worker = this.workers.get(i);
+          worker.from = size * i / this.threads;
+          worker.to = size * (i + 1) / this.threads;
+          worker.first = read;
+        }
+        for (Future<Void> future : executor.invokeAll(this.workers)) {
+          future.get();
+        }
+        this.update();
+        read += size;
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("a tuning thread failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Epoch epoch = new Epoch();
+    for (Worker worker : this.workers) {
+      epoch.trained += worker.epoch.trained;
+      epoch.validated += worker.epoch.validated;
+      epoch.trainingSquaredError += worker.epoch.trainingSquaredError;
+      epoch.trainingAbsoluteError += worker.epoch.trainingAbsoluteError;
+      epoch.validationSquaredError += worker.epoch.validationSquaredError;
+      worker.epoch.trained = worker.epoch.validated = 0;
+      worker.epoch.trainingSquaredError = worker.epoch.trainingAbsoluteError = 0;
+      worker.epoch.validationSquaredError = 0;
+    }
+    epoch.nanos = System.nanoTime() - start;
+    return epoch;
+  }
+
+  /**
+   * Utility method for moving every weight used in the batch against its mean
+   * error, and clearing the workers' sums. Intended only for internal use.
+   */
+  private void update() {
+    int touchedCount = 0;
+    for (Worker worker : this.workers) {
+      for (int i = 0; i < worker.touchedCount; ++i) {
+        int feature = worker.touched[i];
+        if (this.counts[feature] == 0) {
+          this.touched[touchedCount++] = feature;
+        }
+        this.counts[feature] += worker.counts[feature];
+        this.errors[feature] += worker.errors[feature];
+        worker.counts[feature] = 0;
+        worker.errors[feature] = 0;
+      }
+      worker.touchedCount = 0;
+    }
+    for (int i = 0; i < touchedCount; ++i) {
+      int feature = this.touched[i];
+      this.weights[feature] -= this.learningRate * this.errors[feature] / this.counts[feature];
+      this.counts[feature] = 0;
+      this.errors[feature] = 0;
+    }
+    for (int phase = 0; phase < this.phases; ++phase) {
+      float error = 0;
+      int count = 0;
+      for (Worker worker : this.workers) {
+        error += worker.biasErrors[phase];
+        count += worker.biasCounts[phase];
+        worker.biasErrors[phase] = 0;
+        worker.biasCounts[phase] = 0;
+      }
+      if (count > 0) {
+        this.biases[phase] -= this.learningRate * error / count;
+      }
+    }
+  }
+
+  /**
+   * @return An evaluator with the current weights, rounded to whole weight
+   *         units.
+   */
+  public PatternEvaluator toEvaluator() {
+    short[] biases = new short[this.phases];
+    short[][] weights = new short[this.phases][PatternEvaluator.FEATURES];
+    for (int phase = 0; phase < this.phases; ++phase) {
+      biases[phase] = toUnits(this.biases[phase]);
+      for (int i = 0; i < PatternEvaluator.FEATURES; ++i) {
+        weights[phase][i] = toUnits(this.weights[phase * PatternEvaluator.FEATURES + i]);
+      }
+    }
+    return new PatternEvaluator(biases, weights);
+  }
+
+  /**
+   * Utility method for converting discs to weight units. Intended only for
+   * internal use.
+   */
+  private static short toUnits(float discs) {
+    long units = Math.round((double) discs * PatternEvaluator.SCALE);
+    return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, units));
+  }
+
+  /**
+   * Tunes weights and saves them after every epoch, so that the best-so-far
+   * weights survive an interrupted run. Load them into the strategy with
+   * {@link Reversi#setEvaluator(PatternEvaluator)} or the
+   * {@value PatternEvaluator#WEIGHTS_PROPERTY} system property.
+   * <p>
+   * Arguments: {@code <positions> <weights> [epochs] [learning rate] [threads]
+   * [initial weights]}, by default 10 epochs at a rate of 0.05 on one thread per
+   * processor, starting from {@link PatternEvaluator#positional()}.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("usage: WeightTuner <positions> <weights> [epochs] [learning rate] [threads] "
+          + "[initial weights]");
+      System.exit(2);
+    }
+    Path positions = Paths.get(args[0]);
+    Path output = Paths.get(args[1]);
+    int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    double learningRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+    PatternEvaluator start = args.length > 5
+        ? PatternEvaluator.load(Paths.get(args[5]))
+        : PatternEvaluator.positional();
+
+    WeightTuner tuner = new WeightTuner(start, threads);
+    tuner.setLearningRate(learningRate);
+    PrintStream out = System.out;
+    out.printf("%5s\t%10s\t%10s\t%10s\t%12s\t%12s\n", "epoch", "train rmse", "train mae", "valid rmse",
+        "positions", "positions/s");
+    for (int i = 1; i <= epochs; ++i) {
+      Epoch epoch = tuner.epoch(positions);
+      out.printf("%5d\t%10.3f\t%10.3f\t%10.3f\t%12d\t%12.0f\n", i, epoch.getTrainingError(),
+          epoch.getTrainingAbsoluteError(), epoch.getValidationError(), epoch.trained + epoch.validated,
+          epoch.getPositionsPerSecond());
+      tuner.toEvaluator().save(output);
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+package reversi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class BoardTest {
+
+	@Test(timeout = 30000)
+	public void concurrentQueriesAgree() throws InterruptedException, ExecutionException {
+		List<Board> boards = new ArrayList<>();
+		Random random = new Random(7);
+		Board board = new Board();
+		while (!board.isComplete()) {
+			if (board.hasCurrentPossibleSquares()) {
+				boards.add(board);
+				List<Square> squares = new ArrayList<>(board.getCurrentPossibleSquares());
+				board = board.play(squares.get(random.nextInt(squares.size())));
+			} else {
+				board = board.pass();
+			}
+		}
+
+		// Copies that have not memoized anything yet, queried by every thread at once
+		final List<Board> fresh = new ArrayList<>();
+		for (Board original : boards) {
+			Board copy = new Board();
+			for (Move move : original.getMoves()) {
+				if (!copy.hasCurrentPossibleSquares()) {
+					copy = copy.pass();
+				}
+				copy = copy.play(move.getSquare());
+			}
+			fresh.add(copy);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; ++i) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (Board board : fresh) {
+							for (Square square : board.getCurrentPossibleSquares()) {
+								Set<Square> captures = board.getCapturedSquares(square);
+								assertEquals(Long.bitCount(board.getFlips(square.getIndex())), captures.size());
+								for (Square captured : captures) {
+									assertEquals(1L, board.getFlips(square.getIndex()) >>> captured.getIndex() & 1);
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < boards.size(); ++i) {
+			assertEquals(boards.get(i).getCurrentPossibleSquares(), fresh.get(i).getCurrentPossibleSquares());
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package reversi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+public class GameRecordReaderTest {
+
+	@Test
+	public void readsMovesAndPasses() throws IOException {
+		GameRecordReader reader = reader((byte) 2, (byte) 19, GameRecord.PASS);
+		GameRecord record = reader.read();
+		assertEquals(Square.of(19), record.getSquare(0));
+		assertEquals(Square.PASS, record.getSquare(1));
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void rejectsMovesOffTheBoard() throws IOException {
+		GameRecordReader reader = reader((byte) 2, (byte) 19, (byte) 0x40);
+		try {
+			reader.read();
+			fail("read a move off the board");
+		} catch (IOException e) {
+			assertEquals("bad move byte 0x40 in game record 1", e.getMessage());
+		}
+	}
+
+	/**
+	 * Utility method for reading an archive of one record with the given move
+	 * count and moves, and any disc counts.
+	 */
+	private static GameRecordReader reader(byte... record) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(5 + 2 + record.length);
+		bytes.putInt(GameRecordWriter.MAGIC).put(GameRecordWriter.VERSION);
+		bytes.put(record[0]).put((byte) 2).put((byte) 2);
+		bytes.put(record, 1, record.length - 1);
+		return new GameRecordReader(Channels.newChannel(new ByteArrayInputStream(bytes.array(), 0, bytes.position())));
+	}
+}
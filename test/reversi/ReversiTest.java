@@ -0,0 +1,282 @@
+package reversi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import strategy.MonteCarloStrategy;
+import strategy.RandomStrategy;
+
+public class ReversiTest {
+
+	/**
+	 * Keeps the CPU busy until interrupted, and never chooses a square.
+	 */
+	private static class Spinner implements Strategy {
+		@Override
+		public Square chooseSquare(Board board) {
+			while (!Thread.currentThread().isInterrupted()) {
+				// Spin
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Publishes a square, then keeps thinking past its deadline without
+	 * noticing interrupts, and notes whether it was ever called while still
+	 * running.
+	 */
+	private static class Overrunner implements DeadlineStrategy, PonderingStrategy {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicBoolean overlapped = new AtomicBoolean();
+
+		@Override
+		public Square chooseSquare(Board board) {
+			return this.chooseSquare(board, System.nanoTime(), new BestMove());
+		}
+
+		@Override
+		public Square chooseSquare(Board board, long deadline, BestMove bestMove) {
+			this.enter();
+			try {
+				Square square = Square.of(Long.numberOfTrailingZeros(board.getPossibleMoves()));
+				bestMove.publish(square);
+				long end = deadline + TimeUnit.MILLISECONDS.toNanos(20);
+				while (System.nanoTime() < end) {
+					// Think on regardless of interrupts
+				}
+				return square;
+			} finally {
+				this.running.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void opponentThinking(Board board) {
+			this.enter();
+			this.running.decrementAndGet();
+		}
+
+		@Override
+		public void opponentMoved(Board board) {
+			this.enter();
+			this.running.decrementAndGet();
+		}
+
+		@Override
+		public void gameOver(Board board) {
+			this.enter();
+			this.running.decrementAndGet();
+		}
+
+		private void enter() {
+			if (this.running.incrementAndGet() > 1) {
+				this.overlapped.set(true);
+			}
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void strategyIsNotCalledUntilItReturns() throws StrategyTimedOutException {
+		Overrunner overrunner = new Overrunner();
+		Reversi reversi = new Reversi(overrunner, new RandomStrategy(), 50, TimeUnit.MILLISECONDS);
+		// Every move falls back to the published square, and the game completes
+		assertTrue(reversi.play(new Board()).isComplete());
+		assertFalse(overrunner.overlapped.get());
+	}
+
+	@Test(timeout = 10000)
+	public void cpuBoundStrategyTimesOutUnderCpuTime() {
+		Strategy spinner = new Spinner();
+		Reversi reversi = new Reversi(spinner, new RandomStrategy(), 100, TimeUnit.MILLISECONDS);
+		reversi.setCpuTime(true);
+		long start = System.nanoTime();
+		try {
+			reversi.play(new Board());
+			fail("the spinner should have timed out");
+		} catch (StrategyTimedOutException e) {
+			assertSame(spinner, e.getTimedOutStrategy());
+		}
+		// Well within the wall-clock limit of ten times the budget
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+	}
+
+	@Test(timeout = 10000)
+	public void cpuBoundStrategyTimesOutOnSharedExecutor() {
+		ExecutorService executor = MoveExecutors.shared();
+		Strategy spinner = new Spinner();
+		try {
+			Reversi reversi = new Reversi(new RandomStrategy(), spinner, 100, TimeUnit.MILLISECONDS, executor);
+			reversi.setCpuTime(true);
+			reversi.setTimeBank(100, 0, TimeUnit.MILLISECONDS);
+			reversi.play(new Board());
+			fail("the spinner should have timed out");
+		} catch (StrategyTimedOutException e) {
+			assertSame(spinner, e.getTimedOutStrategy());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void cpuBoundStrategyTimesOutInTournament() throws InterruptedException {
+		Tournament tournament = new Tournament(100, TimeUnit.MILLISECONDS, 2);
+		tournament.setCpuTime(true);
+		tournament.add("spinner", new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new Spinner();
+			}
+		});
+		tournament.add("random", new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new RandomStrategy();
+			}
+		});
+		tournament.run(1);
+		assertEquals(2, tournament.getLosses("spinner"));
+		assertEquals(2, tournament.getWins("random"));
+	}
+
+	@Test(timeout = 10000)
+	public void failedGameStopsTournament() throws InterruptedException {
+		Tournament tournament = new Tournament(1, TimeUnit.SECONDS, 2);
+		tournament.add("cheater", new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new Strategy() {
+					@Override
+					public Square chooseSquare(Board board) {
+						// Already taken on the initial board
+						return Square.of(3, 3);
+					}
+				};
+			}
+		});
+		tournament.add("slow", slow());
+		tournament.add("slower", slow());
+		long start = System.nanoTime();
+		try {
+			tournament.run(5);
+			fail("the cheater's games should have failed");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		// Far less than the games between the slow entrants would take
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+	}
+
+	@Test(timeout = 60000)
+	public void tournamentClosesStrategies() throws InterruptedException {
+		Tournament tournament = new Tournament(20, TimeUnit.MILLISECONDS, 2);
+		tournament.add("alpha-beta", new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new strategy.Reversi(20, TimeUnit.MILLISECONDS, 4);
+			}
+		});
+		tournament.add("monte-carlo", new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new MonteCarloStrategy(20, TimeUnit.MILLISECONDS, 4);
+			}
+		});
+		tournament.run(1);
+		// Shut down pools finish their threads soon after the games
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (liveThreads("reversi-search-helper") + liveThreads("monte-carlo-helper") > 0
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, liveThreads("reversi-search-helper"));
+		assertEquals(0, liveThreads("monte-carlo-helper"));
+	}
+
+	@Test(timeout = 30000)
+	public void gameOverStopsPonderThread() throws StrategyTimedOutException, InterruptedException {
+		strategy.Reversi ponderer = new strategy.Reversi(20, TimeUnit.MILLISECONDS);
+		ponderer.setPondering(true);
+		Strategy opponent = new Strategy() {
+			@Override
+			public Square chooseSquare(Board board) {
+				try {
+					// Leave time to ponder
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return RandomStrategy.chooseOne(board.getCurrentPossibleSquares());
+			}
+		};
+		new Reversi(ponderer, opponent, 20, TimeUnit.MILLISECONDS).play(new Board());
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (liveThreads("reversi-ponder") > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, liveThreads("reversi-ponder"));
+	}
+
+	/**
+	 * @return The number of live threads with the given name.
+	 */
+	private static int liveThreads(String name) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().equals(name)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return A factory for random strategies that take 100 ms per move.
+	 */
+	private static Supplier<Strategy> slow() {
+		return new Supplier<Strategy>() {
+			@Override
+			public Strategy get() {
+				return new Strategy() {
+					@Override
+					public Square chooseSquare(Board board) {
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return RandomStrategy.chooseOne(board.getCurrentPossibleSquares());
+					}
+				};
+			}
+		};
+	}
+
+	@Test(timeout = 10000)
+	public void cpuTimeOnVirtualThreadsFailsFast() throws StrategyTimedOutException {
+		Assume.assumeTrue(MoveExecutors.isVirtualThreadSupported());
+		ExecutorService executor = MoveExecutors.virtualThreadPerMove();
+		try {
+			Reversi reversi = new Reversi(new Spinner(), new RandomStrategy(), 100, TimeUnit.MILLISECONDS, executor);
+			reversi.setCpuTime(true);
+			reversi.play(new Board());
+			fail("CPU time cannot be charged on virtual threads");
+		} catch (IllegalStateException e) {
+			// Expected
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package reversi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SearchBoardTest {
+
+	@Test
+	public void makeMoveRejectsIndicesOffTheBoard() {
+		SearchBoard board = new SearchBoard(new Board());
+		for (int index : new int[] { -1, Bitboards.SQUARES, Bitboards.SQUARES + 19 }) {
+			try {
+				board.makeMove(index);
+				fail("played at index " + index);
+			} catch (IllegalArgumentException e) {
+				assertEquals(0, board.getPly());
+			}
+		}
+	}
+}
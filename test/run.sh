@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the project and its JUnit tests, then runs them.
+#
+# CLASSPATH must hold the pcollections and guava jars plus junit and
+# hamcrest-core. Any further arguments name the test classes to run, by
+# default all of them.
+set -e
+cd "$(dirname "$0")/.."
+: "${CLASSPATH:?set CLASSPATH to the project and JUnit jars}"
+
+OUT=test/target/classes
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -d "$OUT" -cp "$CLASSPATH" $(find src test -name '*.java')
+
+if [ $# -eq 0 ]; then
+	set -- $(cd test && find . -name '*Test.java' | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g')
+fi
+java -cp "$OUT:$CLASSPATH" org.junit.runner.JUnitCore "$@"